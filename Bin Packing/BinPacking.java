@@ -7,13 +7,25 @@
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.PriorityQueue;
 import java.util.Scanner;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 
 class TournamentTree
@@ -27,9 +39,13 @@ class TournamentTree
     private Bin [] bins;
     // The maximum capacity of weight a bin can hold
     private int binCapacity;
+    // Bins that are closed are treated as full, so no item is added to them
+    private boolean [] closed;
     
     public TournamentTree( int N, int binCapacity )
     {
+        // A tree needs at least one pair of bins
+        N = Math.max( N, 2 );
         // Increment the total number of times until is a power of 2
         while ( ( N & -N ) != N )
             N++;
@@ -40,14 +56,116 @@ class TournamentTree
         for ( int i = 0; i < bins.length; ++i )
             bins[ i ] = new Bin();
         
+        closed = new boolean[ N ];
+        
         this.binCapacity = binCapacity;
     }
     
     /**
      * Add an item to the first bin that fits in O(logN)
      * @param item 
+     * @return The position of the bin where the item was stored
+     */
+    public int add( int item )
+    {
+        int binPos = findFirstFit( item );
+        
+        bins[ binPos ].addItem( item );
+        
+        updateWinners( binPos );
+        
+        return binPos;
+    }
+    
+    /**
+     * Add an item to the bin at 'binPos' in O(logN)
+     * @param binPos
+     * @param item 
+     */
+    public void addAt( int binPos, int item )
+    {
+        bins[ binPos ].addItem( item );
+        
+        updateWinners( binPos );
+    }
+    
+    /**
+     * Remove the item at position 'pos' of the bin at 'binPos' in O(logN)
+     * @param binPos
+     * @param pos 
+     */
+    public void removeAt( int binPos, int pos )
+    {
+        bins[ binPos ].removeItemAt( pos );
+        
+        updateWinners( binPos );
+    }
+    
+    /**
+     * Open or close a bin. While a bin is closed it is treated as full.
+     * @param binPos
+     * @param flag 
+     */
+    public void setClosed( int binPos, boolean flag )
+    {
+        closed[ binPos ] = flag;
+        
+        updateWinners( binPos );
+    }
+    
+    /**
+     * @param binPos
+     * @return The bin at that position
+     */
+    public Bin getBin( int binPos )
+    { return bins[ binPos ]; }
+    
+    /**
+     * @param binPos
+     * @param item
+     * @return True if the item fits in the bin as seen by the winners, so a
+     * closed bin never fits
+     */
+    public boolean fits( int binPos, int item )
+    { return load( binPos ) + item <= binCapacity; }
+    
+    /**
+     * @param binPos
+     * @return The weight of the bin as seen by the winners
+     */
+    private int load( int binPos )
+    { return closed[ binPos ] ? binCapacity : bins[ binPos ].size(); }
+    
+    /**
+     * Add 'count' copies of an item. Each step fills the first bin that fits
+     * with as many copies as it can hold, so the whole run takes
+     * O(logN) per bin touched instead of per item.
+     * @param item
+     * @param count 
+     * @throws IllegalStateException If no bin of the tree fits the item
+     */
+    public void addRun( int item, int count )
+    {
+        while ( count > 0 )
+        {
+            int binPos = findFirstFit( item );
+            if ( ! fits( binPos, item ) )
+                throw new IllegalStateException( "All the open bins of the tournament tree are full." );
+            
+            int copies = Math.min( count, bins[ binPos ].spaceFor( item ) );
+            
+            bins[ binPos ].addItems( item, copies );
+            count -= copies;
+            
+            updateWinners( binPos );
+        }
+    }
+    
+    /**
+     * @param item
+     * @return The position of the first bin where the item fits
      */
-    public void add( int item )
+    public int findFirstFit( int item )
     {
         // Point at the root of the winners array
         int i = 1;
@@ -76,21 +194,30 @@ class TournamentTree
          * We check whether the left bin has enough space. It it does not
          * it means the item must be stored in the right bin
          */
-        if ( bins[ binPos ].size() > search )
+        if ( load( binPos ) > search )
             ++binPos;
         
-        
-        bins[ binPos ].addItem( item );
-        
+        return binPos;
+    }
+    
+    /**
+     * Go up through the tree updating the winners after the bin at 'binPos' changed
+     * @param binPos 
+     */
+    private void updateWinners( int binPos )
+    {
         // If the bin position is not divisible by 2, then the right bin was used
         if ( binPos % 2 != 0 )
             --binPos;
         
+        // The parent of the pair of bins
+        int i = ( binPos + winners.length ) / 2;
+        
         // Update the parent of the the pair of bins with the smallest weight between them
-        if ( bins[ binPos ].size() <= bins[ binPos + 1 ].size() )
-            winners[ i ] = bins[ binPos ].size();
+        if ( load( binPos ) <= load( binPos + 1 ) )
+            winners[ i ] = load( binPos );
         else
-            winners[ i ] = bins[ binPos + 1 ].size();
+            winners[ i ] = load( binPos + 1 );
         
         // Go up through the tree updating the winners
         i /= 2;
@@ -112,13 +239,134 @@ class TournamentTree
     {
         List<Bin> list = new ArrayList<>();
         
-        for ( int i = 0; i < bins.length && bins[ i ].size() != 0; ++i )
-            list.add( bins[ i ] );
+        // Since items can be removed, an empty bin may be followed by bins that have items
+        for ( int i = 0; i < bins.length; ++i )
+            if ( bins[ i ].size() != 0 )
+                list.add( bins[ i ] );
         
         return list;
     }
 }
 
+/*
+ * Tournament tree for First Fit that can be shared by several producer threads.
+ * Bin loads only grow, so every winner is a lower bound of the real minimum
+ * of its subtree: a thread may be sent to a bin that is already too full, but
+ * it never skips a bin to the left that still has space. This keeps the First
+ * Fit guarantee for every item without locking.
+ */
+class ConcurrentTournamentTree
+{
+    // Same layout as in TournamentTree, but updated with CAS
+    private AtomicIntegerArray winners;
+    // The weight stored in each bin
+    private AtomicIntegerArray loads;
+    // The maximum capacity of weight a bin can hold
+    private int binCapacity;
+    
+    public ConcurrentTournamentTree( int N, int binCapacity )
+    {
+        // A tree needs at least one pair of bins
+        N = Math.max( N, 2 );
+        // Increment the total number of times until is a power of 2
+        while ( ( N & -N ) != N )
+            N++;
+        
+        winners = new AtomicIntegerArray( N );
+        loads = new AtomicIntegerArray( N );
+        this.binCapacity = binCapacity;
+    }
+    
+    /**
+     * Add an item to the first bin that fits. Safe to call from several threads.
+     * @param item
+     * @return The position of the bin where the item was stored
+     */
+    public int add( int item )
+    {
+        // Calculate the maximum size for a bin to be able to store this item
+        int search = binCapacity - item;
+        
+        while ( true )
+        {
+            int binPos = findFirstFit( search );
+            int load = loads.get( binPos );
+            
+            // Keep trying to put the item in this bin while it still has space
+            while ( load <= search )
+            {
+                if ( loads.compareAndSet( binPos, load, load + item ) )
+                {
+                    repair( binPos );
+                    return binPos;
+                }
+                
+                load = loads.get( binPos );
+            }
+            
+            /*
+             * The winners led to a bin that is already too full, either because
+             * another thread filled it or because its repair has not finished yet.
+             * Repair its path ourselves and search again.
+            */
+            repair( binPos );
+        }
+    }
+    
+    /**
+     * @param search The maximum load a bin can have to store the item
+     * @return The position of the first bin that seems to have space
+     */
+    private int findFirstFit( int search )
+    {
+        int i = 1;
+        
+        while( 2 * i < winners.length() )
+        {
+            i = 2 * i;
+            // If no bin in the left subtree has space, go right
+            if ( winners.get( i ) > search )
+                ++i;
+        }
+        
+        int binPos = 2 * i - winners.length();
+        if ( loads.get( binPos ) > search )
+            ++binPos;
+        
+        return binPos;
+    }
+    
+    /**
+     * Go up through the tree raising the winners over the bin at 'binPos'.
+     * Since the loads only grow, a winner is never lowered: when two threads
+     * repair the same node, at least one of them sees both updated children
+     * and the largest value is kept.
+     * @param binPos 
+     */
+    private void repair( int binPos )
+    {
+        int i = ( binPos + winners.length() ) / 2;
+        
+        while ( i != 0 )
+        {
+            int min;
+            if ( 2 * i < winners.length() )
+                min = Math.min( winners.get( 2 * i ), winners.get( 2 * i + 1 ) );
+            else
+            {
+                int left = 2 * i - winners.length();
+                min = Math.min( loads.get( left ), loads.get( left + 1 ) );
+            }
+            
+            int current = winners.get( i );
+            while ( current < min && !winners.compareAndSet( i, current, min ) )
+                current = winners.get( i );
+            
+            i /= 2;
+        }
+    }
+}
+
 /*
  * Models a bin object that can hold items of different sizes and has a weight capacity
  */
@@ -130,12 +378,15 @@ class Bin implements Comparable<Bin>
     private int capacity;
     private int size;
     private List<Integer> items;
+    // How many copies of the item at the same position in 'items' the bin holds
+    private List<Integer> counts;
     
     public Bin()
     {
         capacity = DEFAULT_CAPACITY;
         size = 0;
         items = new ArrayList<>();
+        counts = new ArrayList<>();
     }
     
     public Bin( int id )
@@ -148,9 +399,82 @@ class Bin implements Comparable<Bin>
     public void addItem( int item )
     { 
         items.add( item );
+        counts.add( 1 );
         size += item;
     }
     
+    /**
+     * Add 'count' copies of the same item in one step. If the last items added
+     * to the bin have the same size, the copies are grouped with them.
+     * @param item
+     * @param count 
+     */
+    public void addItems( int item, int count )
+    {
+        int last = items.size() - 1;
+        
+        if ( last >= 0 && items.get( last ) == item )
+            counts.set( last, counts.get( last ) + count );
+        else
+        {
+            items.add( item );
+            counts.add( count );
+        }
+        
+        size += item * count;
+    }
+    
+    /**
+     * @return Every item of the bin, one copy at a time
+     */
+    public List<Integer> getItems()
+    {
+        List<Integer> list = new ArrayList<>();
+        
+        for ( int i = 0; i < items.size(); ++i )
+            for ( int c = 0; c < counts.get( i ); ++c )
+                list.add( items.get( i ) );
+        
+        return list;
+    }
+    
+    /**
+     * Remove one copy of the item at position 'pos' in O(1). If it was the
+     * last copy, the last item of the bin is moved to its position.
+     * @param pos 
+     */
+    public void removeItemAt( int pos )
+    {
+        int item = items.get( pos );
+        
+        if ( counts.get( pos ) == 1 )
+        {
+            int last = items.size() - 1;
+            items.set( pos, items.get( last ) );
+            counts.set( pos, counts.get( last ) );
+            items.remove( last );
+            counts.remove( last );
+        }
+        else
+            counts.set( pos, counts.get( pos ) - 1 );
+        
+        size -= item;
+    }
+    
+    /**
+     * @param item
+     * @return How many copies of the item still fit in this bin, which is
+     * Integer.MAX_VALUE for an item of size 0
+     */
+    public int spaceFor( int item )
+    { return item == 0 ? Integer.MAX_VALUE : ( capacity - size ) / item; }
+    
+    /**
+     * @return The space left in this bin
+     */
+    public int available()
+    { return capacity - size; }
+    
     /**
      * @param item
      * @return True if there is enough space to put the item in this bin
@@ -161,12 +485,24 @@ class Bin implements Comparable<Bin>
     public int size()
     { return size; }
     
+    public int getId()
+    { return id; }
+    
+    public void setId( int newId )
+    { id = newId; }
+    
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
         
-        for ( int item : items )
-            sb.append( item ).append( ", " );
+        for ( int i = 0; i < items.size(); ++i )
+        {
+            sb.append( items.get( i ) );
+            // Runs of equal items are printed as "item x count"
+            if ( counts.get( i ) != 1 )
+                sb.append( " x " ).append( counts.get( i ) );
+            sb.append( ", " );
+        }
         
         if ( sb.length() > 0 )
             sb.setLength( sb.length() - 2 );
@@ -193,128 +529,1796 @@ class Bin implements Comparable<Bin>
     }
 }
 
-public class BinPacking
+/*
+ * Online bin packing where items can also leave their bins. Every item added
+ * gets an ID which is later used to remove it. The bins are found using either
+ * First Fit (with a TournamentTree) or Best Fit (with a NavigableSet of bins),
+ * and both structures are updated in O(logN) when an item leaves.
+ */
+class DynamicBinPacker
 {
-    
-    public static void main( String [ ] args )
-    {
-        for ( String filename : args )
-            try 
-            {
-                List<Integer> items = processFile( filename );
-
-                System.out.println( "************ ONLINE VERSION *************" );
-                System.out.println( "----- Next Fit ----" );
-                nextFit( items );
-                System.out.println( );
-                
-                System.out.println( "----- Worst Fit ----" );
-                worstFit( items );
-                System.out.println( );
-
-                System.out.println( "----- Best Fit -----" );
-                bestFit( items );                
-                System.out.println( );
-
-                System.out.println( "----- First Fit -----" );
-                System.out.println( "Using Tournament Tree" );
-                firstFit( items );
-                System.out.println( );
-                
-                // Sort the items from biggest to smallest in order to the offline version
-                Collections.sort( items, Collections.reverseOrder() );
-
-                System.out.println( "************ OFFLINE VERSION *************" );
-                System.out.println( "----- Next Fit ----" );
-                nextFit( items );
-                System.out.println( );
-
-                System.out.println( "----- Worst Fit ----" );
-                worstFit( items );
-                System.out.println( );
-                
-                System.out.println( "----- Best Fit -----" );
-                bestFit( items );
-                System.out.println( );
-                
-                System.out.println( "----- First Fit -----" );
-                System.out.println( "Using Tournament Tree" );
-                firstFit( items );
-                
-                
-                System.out.println( );
-                System.out.println( );
-            }
-            catch( FileNotFoundException ex )
-            {
-                System.err.println( "The file " + filename + " was not found." );
-            }
-    }
+    private boolean useBestFit;
+    // Used for First Fit
+    private TournamentTree tree;
+    // Used for Best Fit, ordered the same way as in BinPacking.bestFit()
+    private NavigableSet<Bin> bestFitIndex;
+    private List<Bin> bestFitBins;
+    // The size of each item and the position of its bin (-1 once removed), by ID
+    private List<Integer> itemSizes;
+    private List<Integer> itemBins;
+    /*
+     * The IDs of the items in each bin, in the same order as the items of the
+     * Bin itself, and the position of each item in that list, by ID
+    */
+    private List<List<Integer>> binItems;
+    private List<Integer> itemSlots;
     
     /**
-     * Heuristic where if an item fits in the last bin used, put it there;
-     * Otherwise, create a new bin and put it there.
-     * @param items 
+     * @param maxBins The maximum number of bins used at the same time (First Fit only)
+     * @param useBestFit True to use Best Fit, false to use First Fit
      */
-    public static void nextFit( List<Integer> items )
+    public DynamicBinPacker( int maxBins, boolean useBestFit )
     {
-        long start = System.currentTimeMillis(),
-             end;
-        
-        List<Bin> bins = new ArrayList<>();
-        Bin lastBin = new Bin();
-        bins.add( lastBin );
+        this.useBestFit = useBestFit;
         
-        for ( int item : items )
+        if ( useBestFit )
         {
-            // If the last bin does not have space, a new bin is created
-            if ( ! lastBin.hasSpace( item ) )
-            {
-                lastBin = new Bin();
-                bins.add( lastBin );
-            }
-                        
-            lastBin.addItem( item );
+            bestFitIndex = new TreeSet<>();
+            bestFitBins = new ArrayList<>();
         }
+        else
+            tree = new TournamentTree( maxBins, Bin.DEFAULT_CAPACITY );
         
-        end = System.currentTimeMillis();
-        
-        printBins( bins, ( end - start ) );   
+        itemSizes = new ArrayList<>();
+        itemBins = new ArrayList<>();
+        binItems = new ArrayList<>();
+        itemSlots = new ArrayList<>();
     }
     
     /**
-     * Heuristic where the item is placed in the bin that has the most
-     * space. If no such bin exists, a new bin is created and it put there.
-     * @param items 
+     * Add an item using the heuristic of this packer
+     * @param item
+     * @return The ID of the item
      */
-    public static void worstFit( List<Integer> items )
+    public int add( int item )
     {
-        long start = System.currentTimeMillis(),
-             end;
-        
-        List<Bin> bins = new ArrayList<>();
-        bins.add( new Bin() );
+        int id = itemSizes.size();
+        itemSizes.add( item );
+        itemBins.add( -1 );
+        itemSlots.add( -1 );
         
-        PriorityQueue<Bin> pq = new PriorityQueue<Bin>();
-        pq.add( bins.get( 0 ) );
+        place( id, findBin( item, true ) );
         
+        return id;
+    }
+    
+    /**
+     * Remove an item, freeing its space in O(logN). The last item of its bin
+     * takes its position, both in binItems and in the Bin.
+     * @param id The ID given when the item was added
+     */
+    public void remove( int id )
+    {
+        int binPos = itemBins.get( id );
+        if ( binPos == -1 )
+            throw new IllegalArgumentException( "The item with ID " + id + " is not in any bin." );
+        
+        List<Integer> ids = binItems.get( binPos );
+        int slot = itemSlots.get( id );
+        int last = ids.remove( ids.size() - 1 );
+        if ( last != id )
+        {
+            ids.set( slot, last );
+            itemSlots.set( last, slot );
+        }
+        itemBins.set( id, -1 );
+        itemSlots.set( id, -1 );
+        
+        if ( useBestFit )
+        {
+            Bin bin = bestFitBins.get( binPos );
+            // A closed bin is not in the index and must stay out of it
+            boolean indexed = bestFitIndex.remove( bin );
+            bin.removeItemAt( slot );
+            if ( indexed )
+                bestFitIndex.add( bin );
+        }
+        else
+            tree.removeAt( binPos, slot );
+    }
+    
+    /**
+     * Consolidates the bins that are at most half full by moving their items
+     * into the other bins, starting with the emptiest one. A bin is only
+     * emptied if all of its items can be moved without going over the limit;
+     * otherwise the items already moved out of it are put back, so every move
+     * counted frees a bin.
+     * @param maxMoves The maximum number of items that can be moved
+     * @return The number of items moved
+     */
+    public int repack( int maxMoves )
+    {
+        List<Integer> underfilled = new ArrayList<>();
+        // Empty bins are closed while repacking so that no bin is reopened
+        List<Integer> empty = new ArrayList<>();
+        for ( int binPos = 0; binPos < binItems.size(); ++binPos )
+        {
+            int size = getBin( binPos ).size();
+            if ( size == 0 )
+            {
+                empty.add( binPos );
+                close( binPos, true );
+            }
+            else if ( size <= Bin.DEFAULT_CAPACITY / 2 )
+                underfilled.add( binPos );
+        }
+        
+        // Sort the bins from the emptiest to the fullest
+        Collections.sort( underfilled, ( a, b ) -> getBin( a ).size() - getBin( b ).size() );
+        
+        int moves = 0;
+        for ( int binPos : underfilled )
+        {
+            List<Integer> ids = new ArrayList<>( binItems.get( binPos ) );
+            if ( ids.isEmpty() || moves + ids.size() > maxMoves )
+                continue;
+            
+            // The bin being emptied must not receive any item
+            close( binPos, true );
+            
+            List<Integer> moved = new ArrayList<>();
+            for ( int id : ids )
+            {
+                int target = findBin( itemSizes.get( id ), false );
+                // If no other bin has space, the bin can't be emptied
+                if ( target == -1 || target == binPos )
+                    break;
+                
+                remove( id );
+                place( id, target );
+                moved.add( id );
+            }
+            
+            if ( moved.size() == ids.size() )
+            {
+                moves += moved.size();
+                empty.add( binPos );
+            }
+            else
+            {
+                // Put the items back, since moving them would not free the bin
+                for ( int id : moved )
+                {
+                    remove( id );
+                    place( id, binPos );
+                }
+                close( binPos, false );
+            }
+        }
+        
+        for ( int binPos : empty )
+            close( binPos, false );
+        
+        return moves;
+    }
+    
+    /**
+     * @return Return a list of all the bins that have items
+     */
+    public List<Bin> getBins()
+    {
+        if ( !useBestFit )
+            return tree.getBins();
+        
+        List<Bin> list = new ArrayList<>();
+        for ( Bin bin : bestFitBins )
+            if ( bin.size() != 0 )
+                list.add( bin );
+        
+        return list;
+    }
+    
+    private Bin getBin( int binPos )
+    { return useBestFit ? bestFitBins.get( binPos ) : tree.getBin( binPos ); }
+    
+    /**
+     * @param item
+     * @param canOpen True if an empty bin can be used
+     * @return The position of the bin where the item should go, or -1 if it
+     * needs an empty bin but 'canOpen' is false
+     */
+    private int findBin( int item, boolean canOpen )
+    {
+        int binPos;
+        if ( useBestFit )
+        {
+            // Create a Bin object used for the search
+            Bin toSearch = new Bin();
+            toSearch.addItem( Bin.DEFAULT_CAPACITY - item );
+            
+            // Bins left empty by removals stay in the index and are reused first
+            Bin bin = bestFitIndex.floor( toSearch );
+            if ( !canOpen && ( bin == null || bin.size() == 0 ) )
+                return -1;
+            
+            if ( bin == null )
+            {
+                // Create a Bin with a new ID, which is also its position
+                bin = new Bin( bestFitBins.size() );
+                bestFitBins.add( bin );
+                bestFitIndex.add( bin );
+            }
+            
+            binPos = bin.getId();
+        }
+        else
+        {
+            binPos = tree.findFirstFit( item );
+            
+            // The tree sees closed bins as full, which the Bin itself does not know about
+            if ( !tree.fits( binPos, item ) )
+            {
+                if ( !canOpen )
+                    return -1;
+                throw new IllegalStateException( "All the open bins of the tournament tree are full." );
+            }
+            if ( !canOpen && tree.getBin( binPos ).size() == 0 )
+                return -1;
+        }
+        
+        while ( binItems.size() <= binPos )
+            binItems.add( new ArrayList<Integer>() );
+        
+        return binPos;
+    }
+    
+    /**
+     * Add an item to a bin and update the structure used to find bins
+     */
+    private void place( int id, int binPos )
+    {
+        List<Integer> ids = binItems.get( binPos );
+        itemSlots.set( id, ids.size() );
+        ids.add( id );
+        itemBins.set( id, binPos );
+        
+        int item = itemSizes.get( id );
+        if ( useBestFit )
+        {
+            Bin bin = bestFitBins.get( binPos );
+            // A closed bin is not in the index and must stay out of it
+            boolean indexed = bestFitIndex.remove( bin );
+            bin.addItem( item );
+            if ( indexed )
+                bestFitIndex.add( bin );
+        }
+        else
+            tree.addAt( binPos, item );
+    }
+    
+    private void close( int binPos, boolean flag )
+    {
+        if ( !useBestFit )
+            tree.setClosed( binPos, flag );
+        else if ( flag )
+            bestFitIndex.remove( bestFitBins.get( binPos ) );
+        else
+            bestFitIndex.add( bestFitBins.get( binPos ) );
+    }
+}
+
+/*
+ * Groups the open bins by their available space, rounded down to one of
+ * NUM_BUCKETS buckets. A bitmap of the non-empty buckets, with one summary
+ * bit per word of the bitmap, is used to find the first suitable bucket in O(1).
+ */
+class ResidualBuckets
+{
+    public static final int NUM_BUCKETS = 1 << 16;
+    
+    // The range of available space covered by each bucket
+    private int width;
+    // The first bin in each bucket (-1 if empty) and the next bin in the same bucket
+    private int [ ] head;
+    private int [ ] next;
+    // Bit b is set if bucket b has bins
+    private long [ ] bitmap;
+    // Bit w is set if word w of the bitmap is not 0
+    private long [ ] summary;
+    // Bit s is set if word s of the summary is not 0
+    private long top;
+    
+    public ResidualBuckets( int binCapacity )
+    {
+        width = ( binCapacity + NUM_BUCKETS - 1 ) / NUM_BUCKETS;
+        
+        head = new int[ NUM_BUCKETS ];
+        Arrays.fill( head, -1 );
+        next = new int[ 16 ];
+        
+        bitmap = new long[ NUM_BUCKETS / 64 ];
+        summary = new long[ bitmap.length / 64 ];
+    }
+    
+    /**
+     * Put a bin in the bucket of its available space
+     * @param binPos
+     * @param available 
+     */
+    public void insert( int binPos, int available )
+    {
+        if ( binPos >= next.length )
+            next = Arrays.copyOf( next, Math.max( 2 * next.length, binPos + 1 ) );
+        
+        // An empty bin of a capacity that is a multiple of NUM_BUCKETS goes in the last bucket
+        int b = Math.min( available / width, NUM_BUCKETS - 1 );
+        next[ binPos ] = head[ b ];
+        head[ b ] = binPos;
+        
+        bitmap[ b >> 6 ] |= 1L << b;
+        summary[ b >> 12 ] |= 1L << ( b >> 6 );
+        top |= 1L << ( b >> 12 );
+    }
+    
+    /**
+     * @param bucket
+     * @return The first bin in the bucket, or -1 if the bucket is empty
+     */
+    public int peek( int bucket )
+    { return head[ bucket ]; }
+    
+    /**
+     * @param item
+     * @return The bucket where the bins might have just enough space for the item
+     */
+    public int bucketOf( int item )
+    { return Math.min( item / width, NUM_BUCKETS - 1 ); }
+    
+    /**
+     * Remove the first bin from a bucket
+     * @param bucket
+     * @return The removed bin
+     */
+    public int remove( int bucket )
+    {
+        int binPos = head[ bucket ];
+        head[ bucket ] = next[ binPos ];
+        
+        if ( head[ bucket ] == -1 )
+        {
+            bitmap[ bucket >> 6 ] &= ~( 1L << bucket );
+            if ( bitmap[ bucket >> 6 ] == 0 )
+            {
+                summary[ bucket >> 12 ] &= ~( 1L << ( bucket >> 6 ) );
+                if ( summary[ bucket >> 12 ] == 0 )
+                    top &= ~( 1L << ( bucket >> 12 ) );
+            }
+        }
+        
+        return binPos;
+    }
+    
+    /**
+     * @param from
+     * @return The first non-empty bucket at or after 'from', or -1 if there is none
+     */
+    public int firstNonEmpty( int from )
+    {
+        if ( from >= NUM_BUCKETS )
+            return -1;
+        
+        // Look in the same word of the bitmap
+        int w = from >> 6;
+        long bits = bitmap[ w ] & ( -1L << from );
+        if ( bits != 0 )
+            return ( w << 6 ) + Long.numberOfTrailingZeros( bits );
+        
+        // Look for the next non-empty word in the same word of the summary
+        int s = w >> 6;
+        bits = ( w + 1 ) % 64 == 0 ? 0 : summary[ s ] & ( -1L << ( w + 1 ) );
+        if ( bits == 0 )
+        {
+            // Look for the next non-empty word of the summary
+            bits = ( s + 1 ) == summary.length ? 0 : top & ( -1L << ( s + 1 ) );
+            if ( bits == 0 )
+                return -1;
+            
+            s = Long.numberOfTrailingZeros( bits );
+            bits = summary[ s ];
+        }
+        
+        w = ( s << 6 ) + Long.numberOfTrailingZeros( bits );
+        return ( w << 6 ) + Long.numberOfTrailingZeros( bitmap[ w ] );
+    }
+}
+
+/*
+ * Online bin packing (Next, Worst, Best or First Fit) that keeps its state in
+ * a memory-mapped file instead of Bin objects: the size and bin of every item,
+ * the load of every bin and the winners of the tournament tree. If the process
+ * stops, a packer opened on the same file continues after the last item that
+ * was packed, without reading the input again.
+ * The file is laid out for the maximum number of items given when it is
+ * created, and can not grow: once it is full, no more items can be added to
+ * it. The whole file is mapped at once, so it can not be larger than 2 GB.
+ * Each item takes 8 bytes and each bin of the tree, whose size is the next
+ * power of 2, another 8, so at most 2^27 - 4 = 134,217,724 items fit.
+ */
+class CheckpointedPacker
+{
+    public static final int NEXT_FIT = 0;
+    public static final int WORST_FIT = 1;
+    public static final int BEST_FIT = 2;
+    public static final int FIRST_FIT = 3;
+    
+    // Identifies the files created by this class
+    private static final int MAGIC = 0x42494E50;
+    // Position of each field of the header in the file
+    private static final int MAGIC_POS = 0;
+    private static final int HEURISTIC_POS = 4;
+    private static final int MAX_ITEMS_POS = 8;
+    private static final int PACKED_POS = 12;
+    private static final int NUM_BINS_POS = 16;
+    private static final int OLD_LOAD_POS = 20;
+    private static final int HEADER_SIZE = 24;
+    // The largest file a MappedByteBuffer can map, since it is indexed by int
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+    
+    private MappedByteBuffer buffer;
+    private int heuristic;
+    private int maxItems;
+    // The number of bins, which is a power of 2 so they are the leaves of the tournament tree
+    private int treeSize;
+    // Where the sizes of the items, the bins of the items, the loads and the winners start
+    private int sizesPos;
+    private int itemBinsPos;
+    private int loadsPos;
+    private int winnersPos;
+    // The bins ordered by load and then position, used by Best Fit and Worst Fit
+    private NavigableSet<Long> index;
+    
+    /**
+     * Open the checkpoint file, creating it if it is empty or does not exist.
+     * @param filename
+     * @param heuristic NEXT_FIT, WORST_FIT, BEST_FIT or FIRST_FIT
+     * @param maxItems The maximum number of items that will be packed, which
+     * can not be changed once the file is created
+     * @throws IOException 
+     */
+    public CheckpointedPacker( String filename, int heuristic, int maxItems ) throws IOException
+    {
+        this.heuristic = heuristic;
+        this.maxItems = maxItems;
+        
+        if ( heuristic != NEXT_FIT && heuristic != WORST_FIT && heuristic != BEST_FIT && heuristic != FIRST_FIT )
+            throw new IllegalArgumentException( "The heuristic " + heuristic + " is not NEXT_FIT, WORST_FIT, "
+                                                + "BEST_FIT or FIRST_FIT." );
+        if ( maxItems < 1 )
+            throw new IllegalArgumentException( "A checkpoint file must hold at least one item." );
+        
+        // The smallest power of 2 that is at least the number of bins, computed as a long so it can not overflow
+        long numLeaves = Long.highestOneBit( Math.max( maxItems, 2 ) - 1L ) << 1;
+        long fileSize = HEADER_SIZE + 8L * maxItems + 8L * numLeaves;
+        if ( fileSize > MAX_FILE_SIZE )
+            throw new IllegalArgumentException( "A checkpoint file for " + maxItems + " items would need " 
+                                                + fileSize + " bytes, but at most " + MAX_FILE_SIZE 
+                                                + " bytes can be mapped." );
+        
+        // Every position is now below MAX_FILE_SIZE, so they fit in an int
+        treeSize = (int) numLeaves;
+        sizesPos = HEADER_SIZE;
+        itemBinsPos = sizesPos + 4 * maxItems;
+        loadsPos = itemBinsPos + 4 * maxItems;
+        winnersPos = loadsPos + 4 * treeSize;
+        
+        try ( FileChannel channel = FileChannel.open( Paths.get( filename ), StandardOpenOption.CREATE,
+                                        StandardOpenOption.READ, StandardOpenOption.WRITE ) )
+        {
+            boolean resume = channel.size() > 0;
+            if ( resume && channel.size() != fileSize )
+                throw new IllegalArgumentException( "The file '" + filename + "' is not a checkpoint for "
+                                                    + maxItems + " items." );
+            
+            buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, fileSize );
+            
+            if ( resume )
+            {
+                if ( buffer.getInt( MAGIC_POS ) != MAGIC || buffer.getInt( HEURISTIC_POS ) != heuristic
+                        || buffer.getInt( MAX_ITEMS_POS ) != maxItems )
+                    throw new IllegalArgumentException( "The file '" + filename + "' is not a checkpoint of "
+                                                        + "this heuristic for " + maxItems + " items." );
+                recover();
+            }
+            else
+            {
+                buffer.putInt( MAGIC_POS, MAGIC );
+                buffer.putInt( HEURISTIC_POS, heuristic );
+                buffer.putInt( MAX_ITEMS_POS, maxItems );
+            }
+        }
+        
+        if ( heuristic == BEST_FIT || heuristic == WORST_FIT )
+        {
+            index = new TreeSet<>();
+            for ( int bin = 0; bin < numBins(); ++bin )
+                index.add( key( load( bin ), bin ) );
+        }
+    }
+    
+    /**
+     * @return The number of items packed so far
+     */
+    public int itemsPacked()
+    { return buffer.getInt( PACKED_POS ); }
+    
+    /**
+     * Add the next item using the heuristic of this packer.
+     * The size and the bin of the item, together with the old load of the bin,
+     * are written before the load is changed, so if the process stops halfway
+     * the change can be done again when resuming.
+     * @param item
+     * @return The position of the bin where the item was stored
+     */
+    public int add( int item )
+    {
+        int i = itemsPacked();
+        if ( i == maxItems )
+            throw new IllegalStateException( "The checkpoint file is full: it was created for " + maxItems 
+                                             + " items and can not grow. Start a new checkpoint file"
+                                             + " with a larger maximum." );
+        
+        int bin = findBin( item );
+        
+        buffer.putInt( sizesPos + 4 * i, item );
+        buffer.putInt( OLD_LOAD_POS, load( bin ) );
+        // The bin is stored + 1, since 0 means the item has not been packed
+        buffer.putInt( itemBinsPos + 4 * i, bin + 1 );
+        
+        apply( i );
+        
+        return bin;
+    }
+    
+    /**
+     * Write all the changes to the storage device, so they also survive a
+     * crash of the operating system.
+     */
+    public void sync()
+    { buffer.force(); }
+    
+    /**
+     * @return Return a list of all the bins that have items
+     */
+    public List<Bin> getBins()
+    {
+        List<Bin> bins = new ArrayList<>();
+        for ( int bin = 0; bin < numBins(); ++bin )
+            bins.add( new Bin() );
+        
+        for ( int i = 0; i < itemsPacked(); ++i )
+            bins.get( itemBin( i ) ).addItem( buffer.getInt( sizesPos + 4 * i ) );
+        
+        return bins;
+    }
+    
+    /**
+     * If the process stopped while an item was being added, finish adding it
+     */
+    private void recover()
+    {
+        int i = itemsPacked();
+        if ( i < maxItems && itemBin( i ) != -1 )
+            apply( i );
+    }
+    
+    /**
+     * Put the item 'i' in the bin that was written for it. The item is only
+     * counted as packed once everything else was updated.
+     * @param i 
+     */
+    private void apply( int i )
+    {
+        int bin = itemBin( i );
+        int oldLoad = buffer.getInt( OLD_LOAD_POS );
+        
+        if ( index != null )
+            index.remove( key( load( bin ), bin ) );
+        
+        buffer.putInt( loadsPos + 4 * bin, oldLoad + buffer.getInt( sizesPos + 4 * i ) );
+        if ( bin >= numBins() )
+            buffer.putInt( NUM_BINS_POS, bin + 1 );
+        
+        if ( index != null )
+            index.add( key( load( bin ), bin ) );
+        
+        if ( heuristic == FIRST_FIT )
+            updateWinners( bin );
+        
+        buffer.putInt( PACKED_POS, i + 1 );
+    }
+    
+    /**
+     * @param item
+     * @return The position of the bin where the heuristic puts the item
+     */
+    private int findBin( int item )
+    {
+        int search = Bin.DEFAULT_CAPACITY - item;
+        int numBins = numBins();
+        
+        switch ( heuristic )
+        {
+            case NEXT_FIT:
+                if ( numBins > 0 && load( numBins - 1 ) <= search )
+                    return numBins - 1;
+                break;
+                
+            case WORST_FIT:
+                // The bin with the least load
+                if ( !index.isEmpty() && load( (int) (long) index.first() ) <= search )
+                    return (int) (long) index.first();
+                break;
+                
+            case BEST_FIT:
+                // The bin with the most load that still has space
+                Long key = index.floor( key( search, Integer.MAX_VALUE ) );
+                if ( key != null )
+                    return (int) (long) key;
+                break;
+                
+            case FIRST_FIT:
+                return findFirstFit( search );
+        }
+        
+        // Use a new bin
+        return numBins;
+    }
+    
+    /**
+     * Same as TournamentTree.findFirstFit(), but over the loads in the file
+     * @param search The maximum load a bin can have to store the item
+     */
+    private int findFirstFit( int search )
+    {
+        int i = 1;
+        while( 2 * i < treeSize )
+        {
+            i = 2 * i;
+            if ( winner( i ) > search )
+                ++i;
+        }
+        
+        int binPos = 2 * i - treeSize;
+        if ( load( binPos ) > search )
+            ++binPos;
+        
+        return binPos;
+    }
+    
+    /**
+     * Same as TournamentTree.updateWinners(), but over the loads in the file
+     * @param binPos 
+     */
+    private void updateWinners( int binPos )
+    {
+        if ( binPos % 2 != 0 )
+            --binPos;
+        
+        int i = ( binPos + treeSize ) / 2;
+        buffer.putInt( winnersPos + 4 * i, Math.min( load( binPos ), load( binPos + 1 ) ) );
+        
+        i /= 2;
+        while( i != 0 )
+        {
+            buffer.putInt( winnersPos + 4 * i, Math.min( winner( 2 * i ), winner( 2 * i + 1 ) ) );
+            i /= 2;
+        }
+    }
+    
+    private int numBins()
+    { return buffer.getInt( NUM_BINS_POS ); }
+    
+    private int load( int bin )
+    { return buffer.getInt( loadsPos + 4 * bin ); }
+    
+    private int winner( int i )
+    { return buffer.getInt( winnersPos + 4 * i ); }
+    
+    /**
+     * @param i
+     * @return The bin of the item 'i', or -1 if it has not been packed
+     */
+    private int itemBin( int i )
+    { return buffer.getInt( itemBinsPos + 4 * i ) - 1; }
+    
+    private static long key( int load, int bin )
+    { return ( (long) load << 32 ) | bin; }
+}
+
+/*
+ * Packs items that have several dimensions (e.g. CPU, memory and I/O) into bins
+ * that have a capacity in each dimension. An item fits in a bin only if it fits
+ * in every dimension.
+ * The load of the bins in each dimension is kept in its own array, so the fit
+ * checks go through each dimension over a block of bins in a simple loop that
+ * the JIT can vectorize. The smallest load of each block in each dimension is
+ * also kept, so blocks where no bin can fit the item are skipped.
+ */
+class VectorBinPacker
+{
+    // Number of bins checked together
+    private static final int BLOCK = 64;
+    
+    private int dimensions;
+    private int [ ] capacity;
+    // loads[ d ][ b ] is the load of bin b in dimension d
+    private int [ ][ ] loads;
+    // blockMin[ d ][ k ] is the smallest load in dimension d among the bins of block k
+    private int [ ][ ] blockMin;
+    // The most space left among the bins of each block, adding all the dimensions
+    private long [ ] blockMaxSpace;
+    // The same as blockMin and blockMaxSpace, for groups of BLOCK blocks
+    private int [ ][ ] groupMin;
+    private long [ ] groupMaxSpace;
+    private int numBins;
+    // The items of each bin, by their position in the input
+    private List<List<Integer>> binItems;
+    
+    // For each bin of a block, the space left in its tightest dimension after adding the item
+    private int [ ] slack = new int[ BLOCK ];
+    // For each bin of a block, the squared norm of the space left after adding the item
+    private double [ ] residual = new double[ BLOCK ];
+    
+    /**
+     * @param capacity The capacity of the bins in each dimension
+     * @param maxBins The maximum number of bins that will be used
+     */
+    public VectorBinPacker( int [ ] capacity, int maxBins )
+    {
+        dimensions = capacity.length;
+        this.capacity = capacity.clone();
+        
+        loads = new int[ dimensions ][ maxBins ];
+        blockMin = new int[ dimensions ][ ( maxBins + BLOCK - 1 ) / BLOCK ];
+        blockMaxSpace = new long[ blockMin[ 0 ].length ];
+        groupMin = new int[ dimensions ][ ( blockMin[ 0 ].length + BLOCK - 1 ) / BLOCK ];
+        groupMaxSpace = new long[ groupMin[ 0 ].length ];
+        binItems = new ArrayList<>();
+    }
+    
+    /**
+     * Put the item in the first bin where it fits in every dimension
+     * @param id The position of the item in the input
+     * @param item The size of the item in each dimension
+     * @return The bin where the item was stored
+     */
+    public int firstFit( int id, int [ ] item )
+    {
+        for ( int k = 0; k * BLOCK < numBins; ++k )
+        {
+            if ( !mayFit( blockMin, blockMaxSpace, k, item ) )
+            {
+                // Skip the rest of the group if no bin in it can fit the item
+                if ( k % BLOCK == 0 && !mayFit( groupMin, groupMaxSpace, k / BLOCK, item ) )
+                    k += BLOCK - 1;
+                continue;
+            }
+            
+            int from = k * BLOCK;
+            int length = Math.min( BLOCK, numBins - from );
+            computeSlack( from, length, item, false );
+            
+            for ( int j = 0; j < length; ++j )
+                if ( slack[ j ] >= 0 )
+                    return add( from + j, id, item );
+        }
+        
+        return add( numBins, id, item );
+    }
+    
+    /**
+     * Put the item in the bin where it fits with the smallest space left,
+     * measured as the squared norm of the space left in each dimension
+     * (relative to the capacity of that dimension).
+     * @param id The position of the item in the input
+     * @param item The size of the item in each dimension
+     * @return The bin where the item was stored
+     */
+    public int bestFit( int id, int [ ] item )
+    {
+        int best = numBins;
+        double bestResidual = Double.MAX_VALUE;
+        
+        for ( int k = 0; k * BLOCK < numBins; ++k )
+        {
+            if ( !mayFit( blockMin, blockMaxSpace, k, item ) )
+            {
+                // Skip the rest of the group if no bin in it can fit the item
+                if ( k % BLOCK == 0 && !mayFit( groupMin, groupMaxSpace, k / BLOCK, item ) )
+                    k += BLOCK - 1;
+                continue;
+            }
+            
+            int from = k * BLOCK;
+            int length = Math.min( BLOCK, numBins - from );
+            computeSlack( from, length, item, true );
+            
+            for ( int j = 0; j < length; ++j )
+                if ( slack[ j ] >= 0 && residual[ j ] < bestResidual )
+                {
+                    bestResidual = residual[ j ];
+                    best = from + j;
+                }
+        }
+        
+        return add( best, id, item );
+    }
+    
+    public int numBins()
+    { return numBins; }
+    
+    /**
+     * @param bin
+     * @return The positions in the input of the items in the bin
+     */
+    public List<Integer> getItems( int bin )
+    { return binItems.get( bin ); }
+    
+    /**
+     * @param min The smallest load in each dimension of each block (or group)
+     * @param maxSpace The most space left of each block (or group)
+     * @param k
+     * @param item
+     * @return False if no bin in the block (or group) k has space for the item
+     */
+    private boolean mayFit( int [ ][ ] min, long [ ] maxSpace, int k, int [ ] item )
+    {
+        long total = 0;
+        for ( int d = 0; d < dimensions; ++d )
+        {
+            if ( min[ d ][ k ] > capacity[ d ] - item[ d ] )
+                return false;
+            total += item[ d ];
+        }
+        
+        // A bin can't hold the item if its space in all the dimensions together is smaller
+        return maxSpace[ k ] >= total;
+    }
+    
+    /**
+     * Fill 'slack' (and 'residual' if needed) for the bins from 'from' to
+     * 'from + length - 1', one dimension at a time
+     */
+    private void computeSlack( int from, int length, int [ ] item, boolean withResidual )
+    {
+        for ( int d = 0; d < dimensions; ++d )
+        {
+            int [ ] load = loads[ d ];
+            int limit = capacity[ d ] - item[ d ];
+            
+            if ( d == 0 )
+                for ( int j = 0; j < length; ++j )
+                    slack[ j ] = limit - load[ from + j ];
+            else
+                for ( int j = 0; j < length; ++j )
+                    slack[ j ] = Math.min( slack[ j ], limit - load[ from + j ] );
+            
+            if ( withResidual )
+            {
+                double scale = 1.0 / capacity[ d ];
+                for ( int j = 0; j < length; ++j )
+                {
+                    double r = ( limit - load[ from + j ] ) * scale;
+                    residual[ j ] = ( d == 0 ? 0 : residual[ j ] ) + r * r;
+                }
+            }
+        }
+    }
+    
+    private int add( int bin, int id, int [ ] item )
+    {
+        if ( bin == numBins )
+        {
+            ++numBins;
+            binItems.add( new ArrayList<Integer>() );
+        }
+        
+        binItems.get( bin ).add( id );
+        
+        int k = bin / BLOCK;
+        int from = k * BLOCK;
+        int to = Math.min( from + BLOCK, numBins );
+        for ( int d = 0; d < dimensions; ++d )
+        {
+            loads[ d ][ bin ] += item[ d ];
+            
+            // Update the smallest load of the block
+            int min = Integer.MAX_VALUE;
+            for ( int b = from; b < to; ++b )
+                min = Math.min( min, loads[ d ][ b ] );
+            blockMin[ d ][ k ] = min;
+        }
+        
+        long maxSpace = 0;
+        for ( int b = from; b < to; ++b )
+        {
+            long space = 0;
+            for ( int d = 0; d < dimensions; ++d )
+                space += capacity[ d ] - loads[ d ][ b ];
+            maxSpace = Math.max( maxSpace, space );
+        }
+        blockMaxSpace[ k ] = maxSpace;
+        
+        // Update the group of the block
+        int group = k / BLOCK;
+        int lastBlock = Math.min( group * BLOCK + BLOCK, ( numBins + BLOCK - 1 ) / BLOCK );
+        for ( int d = 0; d < dimensions; ++d )
+        {
+            int min = Integer.MAX_VALUE;
+            for ( int b = group * BLOCK; b < lastBlock; ++b )
+                min = Math.min( min, blockMin[ d ][ b ] );
+            groupMin[ d ][ group ] = min;
+        }
+        
+        maxSpace = 0;
+        for ( int b = group * BLOCK; b < lastBlock; ++b )
+            maxSpace = Math.max( maxSpace, blockMaxSpace[ b ] );
+        groupMaxSpace[ group ] = maxSpace;
+        
+        return bin;
+    }
+}
+
+/*
+ * Models a run of 'count' items that all have the same size
+ */
+class ItemRun
+{
+    public final int size;
+    public final int count;
+    
+    public ItemRun( int size, int count )
+    {
+        this.size = size;
+        this.count = count;
+    }
+}
+
+public class BinPacking
+{
+    // How many times the sharded and the single thread packings are timed
+    private static final int TIMING_ROUNDS = 5;
+    
+    public static void main( String [ ] args )
+    {
+        for ( String filename : args )
+            try 
+            {
+                List<ItemRun> runs = processFile( filename );
+                List<Integer> items = expand( runs );
+
+                System.out.println( "************ ONLINE VERSION *************" );
+                System.out.println( "----- Next Fit ----" );
+                nextFit( items );
+                System.out.println( );
+                
+                System.out.println( "----- Worst Fit ----" );
+                worstFit( items );
+                System.out.println( );
+
+                System.out.println( "----- Best Fit -----" );
+                int bestFitBins = bestFit( items );
+                System.out.println( );
+                
+                System.out.println( "----- Approximate Best Fit -----" );
+                System.out.println( "Using " + ResidualBuckets.NUM_BUCKETS + " Residual Buckets" );
+                printQualityLoss( approximateBestFit( items ), bestFitBins );
+                System.out.println( );
+
+                System.out.println( "----- First Fit -----" );
+                System.out.println( "Using Tournament Tree" );
+                firstFit( items );
+                System.out.println( );
+                
+                int producers = Runtime.getRuntime().availableProcessors();
+                System.out.println( "----- Concurrent First Fit -----" );
+                System.out.println( "Using Concurrent Tournament Tree with " + producers + " producer threads" );
+                concurrentFirstFit( items, producers );
+                System.out.println( );
+                
+                System.out.println( "************ ONLINE HIGH-MULTIPLICITY VERSION *************" );
+                System.out.println( "# of runs of equal consecutive items: " + runs.size() );
+                packRuns( runs );
+                System.out.println( );
+                
+                System.out.println( "************ CHECKPOINTED VERSION *************" );
+                System.out.println( "----- Next Fit ----" );
+                checkpointedPacking( items, CheckpointedPacker.NEXT_FIT );
+                System.out.println( );
+                
+                System.out.println( "----- Worst Fit ----" );
+                checkpointedPacking( items, CheckpointedPacker.WORST_FIT );
+                System.out.println( );
+                
+                System.out.println( "----- Best Fit -----" );
+                checkpointedPacking( items, CheckpointedPacker.BEST_FIT );
+                System.out.println( );
+                
+                System.out.println( "----- First Fit -----" );
+                System.out.println( "Using Tournament Tree" );
+                checkpointedPacking( items, CheckpointedPacker.FIRST_FIT );
+                System.out.println( );
+                
+                System.out.println( "************ DYNAMIC VERSION *************" );
+                System.out.println( "----- First Fit -----" );
+                System.out.println( "Using Tournament Tree" );
+                dynamicPacking( items, false );
+                System.out.println( );
+                
+                System.out.println( "----- Best Fit -----" );
+                dynamicPacking( items, true );
+                System.out.println( );
+                
+                int [ ][ ] vectors = toVectors( items, 3 );
+                if ( vectors.length > 0 )
+                {
+                    System.out.println( "************ VECTOR VERSION *************" );
+                    System.out.println( "Every 3 consecutive items are used as the sizes of an item with 3 dimensions" );
+                    
+                    double [ ] totals = new double[ 3 ];
+                    for ( int [ ] vector : vectors )
+                        for ( int d = 0; d < 3; ++d )
+                            totals[ d ] += vector[ d ];
+                    double idealVectorBins = 0;
+                    for ( double total : totals )
+                        idealVectorBins = Math.max( idealVectorBins, Math.ceil( total / Bin.DEFAULT_CAPACITY ) );
+                    System.out.println( "Ideal # of Bins: " + idealVectorBins );
+                    
+                    for ( String heuristic : new String [ ] { "First Fit", "Best Fit", "First Fit Decreasing" } )
+                    {
+                        System.out.println( "----- " + heuristic + " -----" );
+                        vectorPacking( vectors, heuristic );
+                        System.out.println( );
+                    }
+                }
+                
+                // Sort the items from biggest to smallest in order to the offline version
+                Collections.sort( items, Collections.reverseOrder() );
+
+                System.out.println( "************ OFFLINE VERSION *************" );
+                System.out.println( "----- Next Fit ----" );
+                nextFit( items );
+                System.out.println( );
+
+                System.out.println( "----- Worst Fit ----" );
+                worstFit( items );
+                System.out.println( );
+                
+                System.out.println( "----- Best Fit -----" );
+                bestFitBins = bestFit( items );
+                System.out.println( );
+                
+                System.out.println( "----- Approximate Best Fit -----" );
+                System.out.println( "Using " + ResidualBuckets.NUM_BUCKETS + " Residual Buckets" );
+                printQualityLoss( approximateBestFit( items ), bestFitBins );
+                System.out.println( );
+                
+                System.out.println( "----- First Fit -----" );
+                System.out.println( "Using Tournament Tree" );
+                firstFit( items );
+                System.out.println( );
+                
+                int shards = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+                System.out.println( "----- Sharded First Fit -----" );
+                System.out.println( "Using " + shards + " shards" );
+                shardedPacking( items, shards, false );
+                System.out.println( );
+                
+                System.out.println( "----- Sharded Best Fit -----" );
+                System.out.println( "Using " + shards + " shards" );
+                shardedPacking( items, shards, true );
+                System.out.println( );
+                
+                // Every run of the sorted runs holds all the items of one size
+                List<ItemRun> sortedRuns = sortRuns( runs );
+                
+                System.out.println( "************ OFFLINE HIGH-MULTIPLICITY VERSION *************" );
+                System.out.println( "# of distinct sizes: " + sortedRuns.size() );
+                packRuns( sortedRuns );
+                
+                System.out.println( );
+                System.out.println( );
+            }
+            catch( FileNotFoundException ex )
+            {
+                System.err.println( "The file " + filename + " was not found." );
+            }
+            catch( IOException ex )
+            {
+                System.err.println( "The checkpoint file could not be used: " + ex.getMessage() );
+            }
+    }
+    
+    /**
+     * Heuristic where if an item fits in the last bin used, put it there;
+     * Otherwise, create a new bin and put it there.
+     * @param items 
+     */
+    public static void nextFit( List<Integer> items )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        List<Bin> bins = new ArrayList<>();
+        Bin lastBin = new Bin();
+        bins.add( lastBin );
+        
+        for ( int item : items )
+        {
+            // If the last bin does not have space, a new bin is created
+            if ( ! lastBin.hasSpace( item ) )
+            {
+                lastBin = new Bin();
+                bins.add( lastBin );
+            }
+                        
+            lastBin.addItem( item );
+        }
+        
+        end = System.currentTimeMillis();
+        
+        printBins( bins, ( end - start ) );   
+    }
+    
+    /**
+     * Heuristic where the item is placed in the bin that has the most
+     * space. If no such bin exists, a new bin is created and it put there.
+     * @param items 
+     */
+    public static void worstFit( List<Integer> items )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        List<Bin> bins = new ArrayList<>();
+        bins.add( new Bin() );
+        
+        PriorityQueue<Bin> pq = new PriorityQueue<Bin>();
+        pq.add( bins.get( 0 ) );
+        
+        for ( int item : items )
+        {
+            Bin bin = pq.peek();
+            /* 
+             * Determine if the bin with the most space has enough space for this item.
+             * If not, create a new bin and put it there
+            */
+            if ( ! bin.hasSpace( item ) )
+            {
+                bin = new Bin();
+                bins.add( bin );
+            }
+            else
+                bin = pq.remove();
+            
+            bin.addItem( item );
+            pq.add( bin );
+        }
+        
+        end = System.currentTimeMillis();
+        
+        printBins( bins, ( end - start ) );
+    }
+    
+    /**
+     * Heuristic where the item is put in the fullest bin that still has 
+     * enough space to store the item.
+     * Since NavigableSet does not accept duplicates, each bin is given an ID
+     * and this is used to differentiate bins with the same available space.
+     * @param items 
+     * @return The number of bins used
+     */
+    public static int bestFit( List<Integer> items )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        List<Bin> bins = packBestFit( items );
+        
+        end = System.currentTimeMillis();
+     
+        printBins( bins, ( end - start ) );
+        
+        return bins.size();
+    }
+    
+    /**
+     * Does the work of bestFit() without printing anything
+     * @param items
+     * @return The bins used
+     */
+    public static List<Bin> packBestFit( List<Integer> items )
+    {
+        List<Bin> bins = new ArrayList<>();
+        bins.add( new Bin( 0 ) );
+        
+        NavigableSet<Bin> set = new TreeSet<>();
+        set.add( bins.get( 0 ) );
+        
+        for ( int item : items )
+        {
+            // Create a Bin object used for the search
+            Bin toSearch = new Bin();
+            // Calculate the maximum weight that a bin must have to be able to store this item
+            toSearch.addItem( Bin.DEFAULT_CAPACITY - item );
+            
+            /*
+             * Find the bin with the most weight that still has enough space to
+             * to store the item.
+            */
+            Bin bin = set.floor( toSearch );
+            
+            // If there is no such bin
+            if ( bin == null )
+            {
+                // Create a new Bin with a new ID
+                bin = new Bin( bins.size() );
+                bins.add( bin );
+            }
+            // If there is such a bin, remove it so the item can be added to it
+            else
+                set.remove( bin );
+            
+            bin.addItem( item );
+            set.add( bin );
+        }
+        
+        return bins;
+    }
+    
+    /**
+     * Approximation of Best Fit where the bins are grouped with ResidualBuckets.
+     * The item is put in a bin of the bucket that matches its size if that
+     * bin has enough space; otherwise it is put in a bin of the first non-empty
+     * bucket after it, where every bin is guaranteed to have space.
+     * @param items 
+     * @return The number of bins used
+     */
+    public static int approximateBestFit( List<Integer> items )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        List<Bin> bins = new ArrayList<>();
+        ResidualBuckets buckets = new ResidualBuckets( Bin.DEFAULT_CAPACITY );
+        
+        for ( int item : items )
+        {
+            int bucket = buckets.bucketOf( item );
+            int binPos = buckets.peek( bucket );
+            
+            // If the bin in the item's own bucket does not have space, use the next bucket
+            if ( binPos == -1 || ! bins.get( binPos ).hasSpace( item ) )
+                bucket = buckets.firstNonEmpty( bucket + 1 );
+            
+            Bin bin;
+            if ( bucket == -1 )
+            {
+                bin = new Bin();
+                binPos = bins.size();
+                bins.add( bin );
+            }
+            else
+            {
+                binPos = buckets.remove( bucket );
+                bin = bins.get( binPos );
+            }
+            
+            bin.addItem( item );
+            buckets.insert( binPos, bin.available() );
+        }
+        
+        end = System.currentTimeMillis();
+        
+        printBins( bins, ( end - start ) );
+        
+        return bins.size();
+    }
+    
+    /**
+     * Heuristic where the item is placed in the first bin that fits; if such
+     * a bin does not exist a new one is created.
+     * A tournament tree is used for this heuristic in order for the entire operation
+     * to be O(NlogN)
+     * @param items 
+     */
+    public static void firstFit( List<Integer> items )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        List<Bin> bins = packFirstFit( items );
+                
+        end = System.currentTimeMillis();
+        
+        printBins( bins, ( end - start ) );
+    }
+    
+    /**
+     * Does the work of firstFit() without printing anything
+     * @param items
+     * @return The bins used
+     */
+    public static List<Bin> packFirstFit( List<Integer> items )
+    {
+        TournamentTree tree = new TournamentTree( items.size(), Bin.DEFAULT_CAPACITY );
+        
+        for( int item : items )
+            tree.add( item );
+        
+        return tree.getBins();
+    }
+    
+    /**
+     * First Fit where several producer threads take the next item of the
+     * input and add it to a shared ConcurrentTournamentTree. Each item goes
+     * to the first bin that fits when it is added, but since the threads
+     * interleave, the order of the items is not the same as in the input.
+     * @param items
+     * @param producers Number of threads adding items
+     */
+    public static void concurrentFirstFit( final List<Integer> items, int producers )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        final ConcurrentTournamentTree tree = new ConcurrentTournamentTree( items.size(), Bin.DEFAULT_CAPACITY );
+        // Stores the position of the bin where each item was put
+        final int [ ] binOf = new int[ items.size() ];
+        // Index of the next item to be taken by a producer
+        final AtomicInteger next = new AtomicInteger();
+        
+        Thread [ ] threads = new Thread[ producers ];
+        for ( int t = 0; t < producers; ++t )
+        {
+            threads[ t ] = new Thread( () -> {
+                int i;
+                while ( ( i = next.getAndIncrement() ) < items.size() )
+                    binOf[ i ] = tree.add( items.get( i ) );
+            } );
+            threads[ t ].start();
+        }
+        
+        try
+        {
+            for ( Thread thread : threads )
+                thread.join();
+        }
+        catch ( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        
+        end = System.currentTimeMillis();
+        
+        // Put the items in actual bins so they can be printed
+        List<Bin> bins = new ArrayList<>();
+        for ( int i = 0; i < items.size(); ++i )
+        {
+            while ( bins.size() <= binOf[ i ] )
+                bins.add( new Bin() );
+            bins.get( binOf[ i ] ).addItem( items.get( i ) );
+        }
+        
+        printBins( bins, ( end - start ) );
+    }
+    
+    /**
+     * Adds all the items with a DynamicBinPacker, removes every other item
+     * and then repacks the bins that became underfilled, moving at most 10%
+     * of the items.
+     * @param items
+     * @param useBestFit True to use Best Fit, false to use First Fit
+     */
+    public static void dynamicPacking( List<Integer> items, boolean useBestFit )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        DynamicBinPacker packer = new DynamicBinPacker( items.size(), useBestFit );
+        
+        List<Integer> ids = new ArrayList<>();
         for ( int item : items )
+            ids.add( packer.add( item ) );
+        
+        for ( int i = 1; i < ids.size(); i += 2 )
+            packer.remove( ids.get( i ) );
+        
+        System.out.println( "# of Bins used after removing every other item: " + packer.getBins().size() );
+        
+        int moves = packer.repack( items.size() / 10 );
+        System.out.println( "# of items moved when repacking: " + moves );
+        
+        end = System.currentTimeMillis();
+        
+        printBins( packer.getBins(), ( end - start ) );
+    }
+    
+    /**
+     * Packs the first half of the items with a CheckpointedPacker. Then a new
+     * packer is opened on the same file, as if the program had been restarted,
+     * and it packs the rest of the items.
+     * @param items
+     * @param heuristic One of the heuristics of CheckpointedPacker
+     * @throws IOException 
+     */
+    public static void checkpointedPacking( List<Integer> items, int heuristic ) throws IOException
+    {
+        File file = File.createTempFile( "binpacking", ".ckpt" );
+        
+        long start = System.currentTimeMillis(),
+             end;
+        
+        CheckpointedPacker packer = new CheckpointedPacker( file.getPath(), heuristic, items.size() );
+        for ( int i = 0; i < items.size() / 2; ++i )
+            packer.add( items.get( i ) );
+        packer.sync();
+        
+        packer = new CheckpointedPacker( file.getPath(), heuristic, items.size() );
+        System.out.println( "Resumed after " + packer.itemsPacked() + " items" );
+        for ( int i = packer.itemsPacked(); i < items.size(); ++i )
+            packer.add( items.get( i ) );
+        packer.sync();
+        
+        end = System.currentTimeMillis();
+        
+        printBins( packer.getBins(), ( end - start ) );
+        
+        file.delete();
+    }
+    
+    /**
+     * Splits the items into shards, packs each shard in parallel with First Fit
+     * or Best Fit and then merges the bins of all the shards. The items are dealt
+     * to the shards one at a time, so every shard keeps the order of the items
+     * (and is sorted if they are) and gets items of every size.
+     * The items of the bins that are less full than the average bin are then
+     * placed again, from the biggest to the smallest, with Best Fit over the
+     * space left in the other bins.
+     * The result is compared with packing all the items in a single thread,
+     * timing both several times in turn.
+     * @param items
+     * @param shards The number of shards, each packed by its own thread
+     * @param useBestFit True to use Best Fit in the shards, false to use First Fit
+     */
+    public static void shardedPacking( List<Integer> items, int shards, final boolean useBestFit )
+    {
+        // The pool is created once, so its start-up is not part of any timing
+        ExecutorService pool = Executors.newFixedThreadPool( shards );
+        
+        List<Bin> shardBins = null;
+        List<Bin> bins = null;
+        int singleBins = 0;
+        long shardedTime = Long.MAX_VALUE,
+             singleTime = Long.MAX_VALUE;
+        
+        try
         {
-            Bin bin = pq.peek();
-            /* 
-             * Determine if the bin with the most space has enough space for this item.
-             * If not, create a new bin and put it there
+            /*
+             * Alternate the sharded and the single thread packings and keep the
+             * fastest run of each, so neither one is measured on a cold JIT
             */
-            if ( ! bin.hasSpace( item ) )
+            for ( int round = 0; round < TIMING_ROUNDS; ++round )
             {
-                bin = new Bin();
+                long start = System.currentTimeMillis();
+                shardBins = packShards( items, shards, useBestFit, pool );
+                bins = mergeBins( shardBins );
+                shardedTime = Math.min( shardedTime, System.currentTimeMillis() - start );
+                
+                start = System.currentTimeMillis();
+                singleBins = useBestFit ? packBestFit( items ).size() : packFirstFit( items ).size();
+                singleTime = Math.min( singleTime, System.currentTimeMillis() - start );
+            }
+        }
+        catch ( InterruptedException | ExecutionException ex )
+        {
+            System.err.println( "A shard could not be packed: " + ex );
+            return;
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        
+        printBins( bins, shardedTime );
+        System.out.println( "Bins before merging the shards: " + shardBins.size() );
+        System.out.println( "Single thread: " + singleBins + " bins in " + singleTime + "ms." );
+        System.out.println( "Extra bins compared with a single thread: " + ( bins.size() - singleBins ) );
+        System.out.println( String.format( "Throughput (fastest of %d alternating runs): %.1f items/ms "
+                                           + "(single thread: %.1f items/ms)", TIMING_ROUNDS,
+                            (double) items.size() / Math.max( shardedTime, 1 ),
+                            (double) items.size() / Math.max( singleTime, 1 ) ) );
+    }
+    
+    /**
+     * Deal the items to the shards and pack each shard in its own task of the pool
+     * @param items
+     * @param shards
+     * @param useBestFit
+     * @param pool
+     * @return The bins of all the shards, before merging them
+     * @throws InterruptedException
+     * @throws ExecutionException 
+     */
+    private static List<Bin> packShards( List<Integer> items, int shards, final boolean useBestFit,
+                                         ExecutorService pool ) throws InterruptedException, ExecutionException
+    {
+        List<List<Integer>> chunks = new ArrayList<>();
+        for ( int k = 0; k < shards; ++k )
+            chunks.add( new ArrayList<Integer>() );
+        for ( int i = 0; i < items.size(); ++i )
+            chunks.get( i % shards ).add( items.get( i ) );
+        
+        List<Future<List<Bin>>> packed = new ArrayList<>();
+        for ( final List<Integer> chunk : chunks )
+            packed.add( pool.submit( () -> useBestFit ? packBestFit( chunk ) : packFirstFit( chunk ) ) );
+        
+        List<Bin> shardBins = new ArrayList<>();
+        for ( Future<List<Bin>> future : packed )
+            shardBins.addAll( future.get() );
+        
+        return shardBins;
+    }
+    
+    /**
+     * Merge the bins of the shards: the items of the bins that are less full
+     * than the average bin are taken out and placed one at a time, from the
+     * biggest to the smallest, with Best Fit into the other bins. A new bin is
+     * only opened for an item that does not fit in any of them.
+     * A fixed threshold such as half full would take almost nothing, since
+     * First Fit and Best Fit leave at most one bin per shard that is half empty.
+     * @param shardBins
+     * @return The merged bins
+     */
+    private static List<Bin> mergeBins( List<Bin> shardBins )
+    {
+        List<Bin> bins = new ArrayList<>();
+        List<Integer> leftovers = new ArrayList<>();
+        NavigableSet<Bin> set = new TreeSet<>();
+        
+        long totalSize = 0;
+        for ( Bin bin : shardBins )
+            totalSize += bin.size();
+        long averageSize = totalSize / Math.max( shardBins.size(), 1 );
+        
+        for ( Bin bin : shardBins )
+        {
+            if ( bin.size() < averageSize )
+                leftovers.addAll( bin.getItems() );
+            else
+            {
+                // The bins get new IDs, since the set needs them to be different
+                bin.setId( bins.size() );
+                bins.add( bin );
+                set.add( bin );
+            }
+        }
+        
+        // Place the biggest items first, while there is the most space to choose from
+        Collections.sort( leftovers, Collections.reverseOrder() );
+        
+        for ( int item : leftovers )
+        {
+            Bin toSearch = new Bin();
+            toSearch.addItem( Bin.DEFAULT_CAPACITY - item );
+            
+            Bin bin = set.floor( toSearch );
+            if ( bin == null )
+            {
+                bin = new Bin( bins.size() );
                 bins.add( bin );
             }
             else
-                bin = pq.remove();
+                set.remove( bin );
             
             bin.addItem( item );
-            pq.add( bin );
+            set.add( bin );
+        }
+        
+        return bins;
+    }
+    
+    /**
+     * Packs items with several dimensions with First Fit, Best Fit or First Fit
+     * Decreasing (by the norm of the item) using a VectorBinPacker.
+     * @param items The size of each item in each dimension
+     * @param heuristic "First Fit", "Best Fit" or "First Fit Decreasing"
+     */
+    public static void vectorPacking( final int [ ][ ] items, String heuristic )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        int dimensions = items[ 0 ].length;
+        int [ ] capacity = new int[ dimensions ];
+        Arrays.fill( capacity, Bin.DEFAULT_CAPACITY );
+        
+        VectorBinPacker packer = new VectorBinPacker( capacity, items.length );
+        
+        List<Integer> order = new ArrayList<>();
+        for ( int i = 0; i < items.length; ++i )
+            order.add( i );
+        
+        // Sort the items from biggest to smallest by the norm of their sizes
+        if ( heuristic.equals( "First Fit Decreasing" ) )
+            Collections.sort( order, ( a, b ) -> Double.compare( norm( items[ b ] ), norm( items[ a ] ) ) );
+        
+        for ( int i : order )
+            if ( heuristic.equals( "Best Fit" ) )
+                packer.bestFit( i, items[ i ] );
+            else
+                packer.firstFit( i, items[ i ] );
+        
+        end = System.currentTimeMillis();
+        
+        System.out.println( "# of Bins used: " + packer.numBins() );
+        System.out.println( "First 10 bins:" );
+        for ( int bin = 0; bin < packer.numBins() && bin < 10; ++bin )
+        {
+            StringBuilder sb = new StringBuilder();
+            for ( int i : packer.getItems( bin ) )
+                sb.append( Arrays.toString( items[ i ] ) ).append( ", " );
+            sb.setLength( sb.length() - 2 );
+            
+            System.out.println( ( bin + 1 ) + ": " + sb );
+        }
+        
+        System.out.println( "Elapsed Time: " + ( end - start ) + "ms." );
+    }
+    
+    /**
+     * @param item
+     * @return The squared norm of the sizes of the item
+     */
+    private static double norm( int [ ] item )
+    {
+        double sum = 0;
+        for ( int size : item )
+            sum += (double) size * size;
+        
+        return sum;
+    }
+    
+    /**
+     * Make items with several dimensions out of consecutive items.
+     * @param items
+     * @param dimensions
+     * @return The items, with the sizes of each one in an array
+     */
+    private static int [ ][ ] toVectors( List<Integer> items, int dimensions )
+    {
+        int [ ][ ] vectors = new int[ items.size() / dimensions ][ dimensions ];
+        
+        for ( int i = 0; i < vectors.length; ++i )
+            for ( int d = 0; d < dimensions; ++d )
+                vectors[ i ][ d ] = items.get( i * dimensions + d );
+        
+        return vectors;
+    }
+    
+    /**
+     * Print the bins used by each heuristic that places runs of items
+     * @param runs 
+     */
+    private static void packRuns( List<ItemRun> runs )
+    {
+        System.out.println( "----- Next Fit ----" );
+        nextFitRuns( runs );
+        System.out.println( );
+
+        System.out.println( "----- Worst Fit ----" );
+        worstFitRuns( runs );
+        System.out.println( );
+
+        System.out.println( "----- Best Fit -----" );
+        bestFitRuns( runs );
+        System.out.println( );
+
+        System.out.println( "----- First Fit -----" );
+        System.out.println( "Using Tournament Tree" );
+        firstFitRuns( runs );
+    }
+    
+    /**
+     * Same as nextFit(), but every run of equal items is placed in one step:
+     * the last bin is filled with as many copies as fit and the rest go to
+     * new bins.
+     * @param runs 
+     */
+    public static void nextFitRuns( List<ItemRun> runs )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        List<Bin> bins = new ArrayList<>();
+        Bin lastBin = new Bin();
+        bins.add( lastBin );
+        
+        for ( ItemRun run : runs )
+        {
+            int remaining = run.count;
+            while ( remaining > 0 )
+            {
+                // If the last bin does not have space, a new bin is created
+                if ( ! lastBin.hasSpace( run.size ) )
+                {
+                    lastBin = new Bin();
+                    bins.add( lastBin );
+                }
+                
+                int copies = Math.min( remaining, lastBin.spaceFor( run.size ) );
+                lastBin.addItems( run.size, copies );
+                remaining -= copies;
+            }
+        }
+        
+        end = System.currentTimeMillis();
+        
+        printBins( bins, ( end - start ) );   
+    }
+    
+    /**
+     * Same as worstFit(), but the bin with the most space keeps receiving
+     * copies of the run until it would no longer have the most space.
+     * When the bins have about the same space, Worst Fit itself spreads a run
+     * one copy per bin, so the time grows with the number of (size, count)
+     * groups in the resulting bins rather than with the number of runs.
+     * @param runs 
+     */
+    public static void worstFitRuns( List<ItemRun> runs )
+    {
+        long start = System.currentTimeMillis(),
+             end;
+        
+        List<Bin> bins = new ArrayList<>();
+        bins.add( new Bin() );
+        
+        PriorityQueue<Bin> pq = new PriorityQueue<Bin>();
+        pq.add( bins.get( 0 ) );
+        
+        for ( ItemRun run : runs )
+        {
+            int remaining = run.count;
+            while ( remaining > 0 )
+            {
+                Bin bin = pq.peek();
+                // If the bin with the most space can't store the item, create a new bin
+                if ( ! bin.hasSpace( run.size ) )
+                {
+                    bin = new Bin();
+                    bins.add( bin );
+                }
+                else
+                    pq.remove();
+                
+                int copies = Math.min( remaining, bin.spaceFor( run.size ) );
+                
+                /*
+                 * Stop adding copies once the bin has less space than the
+                 * next bin in the queue, since the next copy would go there.
+                 * Copies of size 0 never change the space, so they all stay.
+                */
+                if ( ! pq.isEmpty() && run.size > 0 )
+                {
+                    int nextAvailable = pq.peek().available();
+                    copies = Math.min( copies, ( bin.available() - nextAvailable ) / run.size + 1 );
+                }
+                
+                bin.addItems( run.size, copies );
+                remaining -= copies;
+                pq.add( bin );
+            }
         }
         
         end = System.currentTimeMillis();
@@ -323,13 +2327,12 @@ public class BinPacking
     }
     
     /**
-     * Heuristic where the item is put in the fullest bin that still has 
-     * enough space to store the item.
-     * Since NavigableSet does not accept duplicates, each bin is given an ID
-     * and this is used to differentiate bins with the same available space.
-     * @param items 
+     * Same as bestFit(), but the fullest bin that fits the item receives as
+     * many copies of the run as it can hold. After each copy it is still the
+     * fullest bin that fits, so this is the same as adding them one by one.
+     * @param runs 
      */
-    public static void bestFit( List<Integer> items )
+    public static void bestFitRuns( List<ItemRun> runs )
     {
         long start = System.currentTimeMillis(),
              end;
@@ -340,32 +2343,34 @@ public class BinPacking
         NavigableSet<Bin> set = new TreeSet<>();
         set.add( bins.get( 0 ) );
         
-        for ( int item : items )
+        for ( ItemRun run : runs )
         {
             // Create a Bin object used for the search
             Bin toSearch = new Bin();
             // Calculate the maximum weight that a bin must have to be able to store this item
-            toSearch.addItem( Bin.DEFAULT_CAPACITY - item );
-            
-            /*
-             * Find the bin with the most weight that still has enough space to
-             * to store the item.
-            */
-            Bin bin = set.floor( toSearch );
+            toSearch.addItem( Bin.DEFAULT_CAPACITY - run.size );
             
-            // If there is no such bin
-            if ( bin == null )
+            int remaining = run.count;
+            while ( remaining > 0 )
             {
-                // Create a new Bin with a new ID
-                bin = new Bin( bins.size() );
-                bins.add( bin );
+                Bin bin = set.floor( toSearch );
+
+                // If there is no such bin
+                if ( bin == null )
+                {
+                    // Create a new Bin with a new ID
+                    bin = new Bin( bins.size() );
+                    bins.add( bin );
+                }
+                // If there is such a bin, remove it so the items can be added to it
+                else
+                    set.remove( bin );
+                
+                int copies = Math.min( remaining, bin.spaceFor( run.size ) );
+                bin.addItems( run.size, copies );
+                remaining -= copies;
+                set.add( bin );
             }
-            // If there is such a bin, remove it so the item can be added to it
-            else
-                set.remove( bin );
-            
-            bin.addItem( item );
-            set.add( bin );
         }
         
         end = System.currentTimeMillis();
@@ -374,27 +2379,88 @@ public class BinPacking
     }
     
     /**
-     * Heuristic where the item is placed in the first bin that fits; if such
-     * a bin does not exist a new one is created.
-     * A tournament tree is used for this heuristic in order for the entire operation
-     * to be O(NlogN)
-     * @param items 
+     * Same as firstFit(), but each run is placed with TournamentTree.addRun().
+     * Since First Fit leaves at most one bin half empty, the tree only needs
+     * 2 * ideal + 1 bins instead of one per item.
+     * @param runs 
      */
-    public static void firstFit( List<Integer> items )
+    public static void firstFitRuns( List<ItemRun> runs )
     {
         long start = System.currentTimeMillis(),
              end;
         
-        TournamentTree tree = new TournamentTree( items.size(), Bin.DEFAULT_CAPACITY );
+        long totalCount = 0;
+        long totalSize = 0;
+        for ( ItemRun run : runs )
+        {
+            totalCount += run.count;
+            totalSize += (long) run.size * run.count;
+        }
         
-        for( int item : items )
-            tree.add( item );
+        long idealNumBins = ( totalSize + Bin.DEFAULT_CAPACITY - 1 ) / Bin.DEFAULT_CAPACITY;
+        int maxBins = (int) Math.min( totalCount, 2 * idealNumBins + 1 );
+        
+        TournamentTree tree = new TournamentTree( maxBins, Bin.DEFAULT_CAPACITY );
+        
+        for ( ItemRun run : runs )
+            tree.addRun( run.size, run.count );
                 
         end = System.currentTimeMillis();
         
         printBins( tree.getBins(), ( end - start ) );
     }
     
+    /**
+     * @param runs
+     * @return Every item of the runs, one by one and in the same order, for
+     * the heuristics that place one item at a time
+     */
+    public static List<Integer> expand( List<ItemRun> runs )
+    {
+        List<Integer> items = new ArrayList<>();
+        for ( ItemRun run : runs )
+            for ( int i = 0; i < run.count; ++i )
+                items.add( run.size );
+        
+        return items;
+    }
+    
+    /**
+     * Merge all the runs of each size, from the biggest size to the smallest,
+     * without expanding them into items. This takes O(R logR) for R runs.
+     * @param runs
+     * @return One run per distinct size
+     */
+    public static List<ItemRun> sortRuns( List<ItemRun> runs )
+    {
+        List<ItemRun> sorted = new ArrayList<>( runs );
+        Collections.sort( sorted, ( a, b ) -> Integer.compare( b.size, a.size ) );
+        
+        List<ItemRun> merged = new ArrayList<>();
+        for ( ItemRun run : sorted )
+        {
+            int last = merged.size() - 1;
+            if ( last >= 0 && merged.get( last ).size == run.size )
+                merged.set( last, new ItemRun( run.size, merged.get( last ).count + run.count ) );
+            else
+                merged.add( run );
+        }
+        
+        return merged;
+    }
+    
+    /**
+     * Print how many more bins an approximate heuristic used than the exact one.
+     * @param approxBins
+     * @param exactBins 
+     */
+    private static void printQualityLoss( int approxBins, int exactBins )
+    {
+        double percent = 100.0 * ( approxBins - exactBins ) / exactBins;
+        System.out.println( "Extra bins compared with Best Fit: " + ( approxBins - exactBins )
+                            + String.format( " (%.3f%%)", percent ) );
+    }
+    
     /**
      * Print the total # of bins used and the first 10 bins.
      * @param bins
@@ -415,32 +2481,45 @@ public class BinPacking
     }
     
     /**
-     * Process each file and store the weights in a list.
+     * Process each file and store the weights as they are read, with
+     * consecutive equal weights grouped into one (size, count) run.
      * @param filename
-     * @return
+     * @return The runs, in the order of the file
      * @throws FileNotFoundException 
      */
-    private static List<Integer> processFile( String filename ) throws FileNotFoundException
+    private static List<ItemRun> processFile( String filename ) throws FileNotFoundException
     {
         System.out.println( "File: " + filename );
         Scanner scanner = new Scanner( new File( filename ) );
         
-        List<Integer> items = new ArrayList<>();
+        List<ItemRun> runs = new ArrayList<>();
+        // The size and the number of items of the run being read
+        int size = 0;
+        int count = 0;
         // Store the sum of all the weights
         long totalSize = 1L;
         while ( scanner.hasNextLine() )
         {
             String line = scanner.nextLine().trim();
             int item = Integer.parseInt( line );
-            items.add( item );
+            
+            if ( count > 0 && item != size )
+            {
+                runs.add( new ItemRun( size, count ) );
+                count = 0;
+            }
+            size = item;
+            ++count;
             totalSize += item;
         }
+        if ( count > 0 )
+            runs.add( new ItemRun( size, count ) );
         
         // Print the ideal number of bins
         double idealNumBins = Math.ceil( ( (double) totalSize ) / Bin.DEFAULT_CAPACITY );
         System.out.println( "Ideal # of Bins: " + idealNumBins );
         
-        return items;
+        return runs;
     }
     
     
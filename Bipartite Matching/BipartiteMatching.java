@@ -7,70 +7,85 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Scanner;
-import java.util.Set;
-import java.util.Stack;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 class Graph
 {
-    // These vertices are used to be able to calculate the max flow in the graph
-    private final Vertex SOURCE, SINK;
-    // Used when finding the shortest path in the graph to represent infinity
-    private final int INFINITY = Integer.MAX_VALUE / 3;
-    
     // Store the vertices in the first partition of the graph user their name as their keys
     private Map<String,Vertex> partition1;
     // Store the vertices in the second partition of the graph user their name as their keys
     private Map<String,Vertex> partition2;
-    // Adjacency list for all vertices in the graph
-    private Map<Vertex,Set<Vertex>> adjList;
-    // Stores each vertex's rankings of the other partition
-    private Map<Vertex,List<Vertex>> rankings;
-    // The number of vertices in each partition
+    // The number of vertices in the first partition
     private int N;
+    // The total number of times the vertices of each partition can be matched
+    private int capacity1;
+    private int capacity2;
+    // Every vertex by its ID in the flow network
+    private Vertex [ ] vertices;
+    /*
+     * The rankings of each vertex, by their IDs and best first: vertex v ranked
+     * prefList[ prefStart[ v ] ] to prefList[ prefStart[ v + 1 ] - 1 ]
+    */
+    private int [ ] prefStart;
+    private int [ ] prefList;
+    // The rank each vertex gave to each vertex of the other partition, by their IDs
+    private RankTable ranks;
+    /*
+     * The flow network built from the rankings, where the vertices are identified
+     * by their IDs. It is both the flow graph Gf and the residual graph Gr.
+    */
+    private FlowNetwork network;
+    // The K that allows every edge of the network
+    private int maxK;
+    // The edge between each vertex and SOURCE or SINK
+    private int [ ] terminalEdge;
+    /*
+     * For initialMatching, allocated once and reused by every K phase: the
+     * number of free edges of each vertex, the queue of vertices to pair, and
+     * the vertices that could still be matched after the last phase, by ID
+    */
+    private int [ ] degree;
+    private int [ ] queue;
+    private int [ ] free;
+    private int freeCount;
     
     public Graph( String filename ) throws FileNotFoundException
     {
         // Initialize the maps
         partition1 = new TreeMap<>(); 
         partition2 = new TreeMap<>();
-        adjList = new HashMap<>();
-        rankings = new HashMap<>();
+        // The rankings of each vertex until the vertices get their IDs
+        Map<Vertex,Vertex [ ]> rankings = new HashMap<>();
         
         Scanner scanner = new Scanner( new File( filename ) );
         
         Map<String,Vertex> partition = partition1;        
         Map<String,Vertex> otherPartition = partition2;
 
-        N = -1;
-        int lineNum = 1;
-        int numPerPartition = 0;
         boolean finishedFirstPartition = false;
+        int lineNumber = 0;
         // Read the file containing the rankings
         while ( scanner.hasNextLine() )
         {
             String line = scanner.nextLine().trim();
+            ++lineNumber;
             
             // If the line is empty, the first partition was finished reading
             if ( line.isEmpty() && !finishedFirstPartition )
             {
                 partition = partition2;
                 otherPartition = partition1;
-                
-                if ( numPerPartition != N )
-                    throw new IllegalArgumentException( "File '" + filename + "': There are "
-                            + N + " items in partition 1 but each one provided "
-                            + numPerPartition + " rankings.");
-                
                 finishedFirstPartition = true;
-                numPerPartition = 0;
                 
                 continue;    
             }
@@ -79,22 +94,33 @@ class Graph
             if ( line.isEmpty() )
                 continue;
             
-            // Separate the vertex from its rankings
+            // Separate the vertex from its rankings, which may be any number of them
             String [ ] tokens = line.split( ":" );
             // Separate each of the vertices ranked
-            String [ ] choices = tokens[ 1 ].split( "," );
+            String [ ] choices = tokens.length > 1 ? tokens[ 1 ].split( "," ) : new String[ 0 ];
             
-            if ( N == -1)
-                N  = choices.length;
-            else
+            String vertexName = tokens[ 0 ];
+            int capacity = 1;
+            // A vertex that can be matched more than once is written as name(capacity)
+            int open = vertexName.indexOf( '(' );
+            if ( open != -1 && vertexName.endsWith( ")" ) )
             {
-                if ( choices.length != N )
-                    throw new IllegalArgumentException( "File '" + filename + "': In line " + lineNum 
-                                        + ", this item should specify " + N + " rankings.");
+                try
+                {
+                    capacity = Integer.parseInt( vertexName.substring( open + 1, vertexName.length() - 1 ).trim() );
+                }
+                catch ( NumberFormatException ex )
+                {
+                    throw new IllegalArgumentException( "File '" + filename + "', line " + lineNumber 
+                                                        + ": the capacity of '" + vertexName + "' is not a number." );
+                }
+                vertexName = vertexName.substring( 0, open );
+                
+                if ( capacity < 1 )
+                    throw new IllegalArgumentException( "File '" + filename + "', line " + lineNumber + ": " 
+                                                        + vertexName + " must be matched at least once." );
             }
-           
             
-            String vertexName = tokens[ 0 ];
             // Store the vertex in the correct partition
             Vertex v = partition.get( vertexName );
             if ( v == null )
@@ -102,136 +128,113 @@ class Graph
                 v = new Vertex( vertexName );
                 partition.put( vertexName, v );
             }
+            v.capacity = capacity;
             
-            // Store the vertex in the adjacency list with no adjacents by default
-            adjList.put( v, new HashSet<Graph.Vertex>() );
-
             // Store vertex v's rankings in order
-            List<Vertex> ranksList = new ArrayList<>();            
-            for ( String choice : choices )
+            Vertex [ ] ranksList = new Vertex[ choices.length ];
+            for ( int i = 0; i < choices.length; ++i )
             {                
                 // Get the choice vertex from the partition which v is not in
-                Vertex w = otherPartition.get( choice );
+                Vertex w = otherPartition.get( choices[ i ] );
                 if ( w == null )
                 {
-                    w = new Vertex( choice );
-                    otherPartition.put( choice, w );
+                    w = new Vertex( choices[ i ] );
+                    otherPartition.put( choices[ i ], w );
                 }
                 
-                ranksList.add( w );                
+                ranksList[ i ] = w;
             }
             
             // Put vertex v's ranking in the map
             rankings.put( v, ranksList );
-            
-            ++lineNum;
-            ++numPerPartition;
         }
         
-        if ( numPerPartition != N )
-                    throw new IllegalArgumentException( "File '" + filename + "': Each item "
-                            + " in partition 1 provided " + N + " rankings, but"
-                            + " there are only " + numPerPartition + " items in partition 2.");
-        
-        // Initialize the SOURCE and SINK vertices
-        SOURCE = new Vertex( "source" );
-        SINK = new Vertex( "sink" );
-        
-        // Make the SOURCE vertex adjacent to all the vertices in the first partition
-        Set<Vertex> adjSource = new HashSet<>();        
-        for ( Map.Entry<String,Vertex> entry : partition1.entrySet() )
-            adjSource.add( entry.getValue() );
-        adjList.put( SOURCE, adjSource );
+        N = partition1.size();
+        for ( Vertex v : partition1.values() )
+            capacity1 += v.capacity;
+        for ( Vertex v : partition2.values() )
+            capacity2 += v.capacity;
         
-        // The SINK vertex starts with having no adjacent vertices
-        adjList.put( SINK, new HashSet<Graph.Vertex>() );
-
-        // Make all the vertices in the second partition adjacent to SINK
-        for ( Map.Entry<String,Vertex> entry : partition2.entrySet() )
-            adjList.get( entry.getValue() ).add( SINK );
-    }
-    
-    /**
-     * Creates a graph having the same vertices as the one passed in the
-     * parameter.
-     * @param other 
-     */
-    public Graph( Graph other )
-    {
-        partition1 = new HashMap<>();
-        partition2 = new HashMap<>();
-        adjList = new HashMap<>();
+        // Give every vertex an ID, which is used instead of its name from now on
+        vertices = new Vertex[ 2 + partition1.size() + partition2.size() ];
+        vertices[ FlowNetwork.SOURCE ] = new Vertex( "source" );
+        vertices[ FlowNetwork.SINK ] = new Vertex( "sink" );
         
-        SOURCE = new Vertex( "source" );
-        SINK = new Vertex( "sink" );
+        int id = 2;
+        for ( Vertex v : partition1.values() )
+        {
+            v.id = id;
+            vertices[ id++ ] = v;
+        }
+        for ( Vertex v : partition2.values() )
+        {
+            v.id = id;
+            vertices[ id++ ] = v;
+        }
         
-        Set<Graph.Vertex> adjSource = new HashSet<Graph.Vertex>();
-        // Copy each vertex in the first partition of the other graph into this one
-        for ( Map.Entry<String,Vertex> entry : other.partition1.entrySet() )
+        // Store the rankings by ID, which only takes as much memory as the ranks given
+        prefStart = new int[ vertices.length + 1 ];
+        for ( int v = 2; v < vertices.length; ++v )
         {
-            Vertex v = new Vertex( entry.getKey() );
-            partition1.put( entry.getKey(), v );
-            adjSource.add( v );
-            adjList.put( v, new HashSet<Graph.Vertex>() );
+            Vertex [ ] ranksList = rankings.get( vertices[ v ] );
+            prefStart[ v + 1 ] = prefStart[ v ] + ( ranksList == null ? 0 : ranksList.length );
         }
         
-        // Copy each vertex in the second partition of the other graph into this one
-        for ( Map.Entry<String,Vertex> entry : other.partition2.entrySet() )
+        prefList = new int[ prefStart[ vertices.length ] ];
+        for ( Map.Entry<Vertex,Vertex [ ]> entry : rankings.entrySet() )
         {
-            Vertex v = new Vertex( entry.getKey() );
-            partition2.put( entry.getKey(), v );
-            Set<Graph.Vertex> thisSet = new HashSet<Graph.Vertex>();
-            // Make each vertex in the 2nd partition adjacent to SINk
-            thisSet.add( SINK );
-            adjList.put( v, thisSet );
+            int i = prefStart[ entry.getKey().id ];
+            for ( Vertex w : entry.getValue() )
+                prefList[ i++ ] = w.id;
         }
-       
-        // Add the SOURCE and SINK to the adjacency list
-        adjList.put( SOURCE, adjSource );
-        adjList.put( SINK, new HashSet<Graph.Vertex>() );
         
-        for ( Map.Entry<Vertex,Set<Vertex>> entry : other.adjList.entrySet() )
-            for ( Vertex x : entry.getValue() )
-                adjList.get( entry.getKey() ).add( getVertex( x.name ) );
+        ranks = new RankTable( 2, partition1.size(), partition2.size(), prefStart, prefList );
+        
+        network = buildNetwork();
+        maxK = network.maxThreshold();
+        
+        terminalEdge = new int[ vertices.length ];
+        for ( int e = network.first[ FlowNetwork.SOURCE ]; e < network.first[ FlowNetwork.SOURCE + 1 ]; ++e )
+            terminalEdge[ network.head[ e ] ] = e;
+        for ( int e = network.first[ FlowNetwork.SINK ]; e < network.first[ FlowNetwork.SINK + 1 ]; ++e )
+            terminalEdge[ network.head[ e ] ] = network.reverse[ e ];
     }
     
     /**
-     * @param name Name of the vertex
-     * @return The vertex in this graph with that name
+     * Build the flow network: SOURCE has an edge to every vertex in the first
+     * partition, every vertex in the second partition has an edge to SINK, 
+     * both with the capacity of the vertex, and
+     * V1 has an edge to V2 if they ranked each other. The edge between V1 and V2
+     * can be used once K is at least the worst of the two ranks.
+     * @return The flow network
      */
-    private Vertex getVertex( String name )
+    private FlowNetwork buildNetwork()
     {
-        Vertex v = null;
-        if ( name.equals( "source" ) )
-            v = SOURCE;
-        else if ( name.equals( "sink" ) )
-            v = SINK;
-        else
+        List<int [ ]> edges = new ArrayList<>();
+        
+        for ( Vertex v : partition1.values() )
+            edges.add( new int[ ] { FlowNetwork.SOURCE, v.id, v.capacity, 0 } );
+        
+        for ( Vertex w : partition2.values() )
+            edges.add( new int[ ] { w.id, FlowNetwork.SINK, w.capacity, 0 } );
+        
+        for ( Vertex v : partition1.values() )
         {
-            v = partition1.get( name );
-            if ( v == null ) 
-                v = partition2.get( name );
+            for ( int i = prefStart[ v.id ]; i < prefStart[ v.id + 1 ]; ++i )
+            {
+                int w = prefList[ i ];
+                int rankOfW = i - prefStart[ v.id ] + 1;
+                int rankOfV = ranks.get( w, v.id );
+                
+                // The edge is only added if w also ranked v
+                if ( rankOfV != 0 )
+                    edges.add( new int[ ] { v.id, w, 1, Math.max( rankOfW, rankOfV ) } );
+            }
         }
         
-        return v;
+        return new FlowNetwork( vertices.length, edges );
     }
     
-    /**
-     * Adds an edge to the graph
-     * @param v1Name Name of the first vertex
-     * @param v2Name Name of the second vertex
-     */
-    public void addEdge( String v1Name, String v2Name )
-    { adjList.get( getVertex( v1Name ) ).add( getVertex( v2Name ) ); }
-    
-    /**
-     * Removes an edge to the graph
-     * @param v1Name name of the first vertex
-     * @param v2Name name of the second vertex
-     */
-    public void removeEdge( String v1Name, String v2Name )
-    { adjList.get( getVertex( v1Name ) ).remove( getVertex( v2Name ) ); }
-    
     /**
      * Find the lowest rank K such that a bipartite matching was found and print
      * all the matchings. Starting at K = 1, an edge is added to the residual graph 
@@ -245,249 +248,542 @@ class Graph
     {
         int K = 0;
         int netFlow = 0;
-        // The residual graph is created
-        Graph residual = new Graph( this );
-        // Stores the current ranks seen so far for each vertex
-        Map<Vertex,List<Vertex>> currentRanks = new HashMap<>();
+        network.clearFlow();
         
-        while ( netFlow != N )
+        if ( degree == null )
         {
-            K++;
-            netFlow = calcNetworkFlow( residual, K, netFlow, currentRanks );
+            degree = new int[ vertices.length ];
+            /*
+             * Every vertex is queued once at the start of a phase, and then only
+             * right after one of its free edges is used or lost, which happens
+             * once to each end of an edge between the partitions. network.head
+             * has both directions of every edge, so it is at least as long as
+             * the number of ends.
+            */
+            queue = new int[ vertices.length + network.head.length ];
+            free = new int[ vertices.length ];
+        }
+        freeCount = 0;
+        for ( int v = 2; v < vertices.length; ++v )
+            free[ freeCount++ ] = v;
+        
+        int initialPairs = 0;
+        int augmentations = 0;
+        while ( netFlow != capacity1 )
+        {
+            K = nextK( K );
+            int pairs = initialMatching( K );
+            initialPairs += pairs;
+            
+            int flow = calcNetworkFlow( K, netFlow + pairs );
+            augmentations += flow - ( netFlow + pairs );
+            netFlow = flow;
         }
         
+        storeFlowMatching();
         printMatching( K );
         
+        System.out.println( "The initial matchings found " + initialPairs + " of the " + capacity1 
+                            + " pairs, and " + augmentations + " augmenting paths found the rest." );
     }
     
     /**
-     * Print the matching for all vertices in the graph
-     * @param K 
+     * @param K
+     * @return The next K to try. If every edge was already allowed for K, or
+     * the partitions can be matched a different number of times, there is no
+     * K that matches everybody
      */
-    private void printMatching( int K )
+    private int nextK( int K )
     {
-        System.out.println( "Everybody was matched with their top " + K + " preferences.");
+        if ( K >= maxK || capacity1 != capacity2 )
+            throw new IllegalArgumentException( "There is no matching where everybody is matched." );
         
-        // Print the first partition matchings
-        for ( Map.Entry<String,Vertex> entry : partition1.entrySet() )
+        return K + 1;
+    }
+    
+    /**
+     * Match, without augmenting paths, vertices that can still be matched using
+     * the edges allowed for K (Karp-Sipser). A vertex with no more free edges
+     * than the times it can still be matched can always use them, so those are
+     * paired first. When there are none left, a vertex of the first partition
+     * is paired through its edge with the lowest threshold, which is a mutual
+     * first choice whenever there is one.
+     * Each phase starts from the matching of the last one, and only looks at
+     * the vertices it left free, whose edges are each looked at a constant
+     * number of times.
+     * @param K
+     * @return The number of pairs that were matched
+     */
+    private int initialMatching( int K )
+    {
+        // Drop the vertices that were fully matched since the last phase, keeping the order of their IDs
+        int count = 0;
+        for ( int i = 0; i < freeCount; ++i )
+            if ( remaining( free[ i ] ) > 0 )
+                free[ count++ ] = free[ i ];
+        freeCount = count;
+        
+        int back = 0;
+        for ( int i = 0; i < freeCount; ++i )
         {
-            Vertex v1 = entry.getValue();
-            Vertex v2 = v1.getMatchedVertex();
-            // Get vertex v1's ranking of v2
-            int ranking = rankings.get( v1 ).indexOf( v2 ) + 1;
-            System.out.println( v1 + ": matched to " + v2 + " (rank " + ranking + ")" );
+            int v = free[ i ];
+            degree[ v ] = 0;
+            for ( int e = network.first[ v ]; e < network.first[ v + 1 ]; ++e )
+                if ( isFreeEdge( v, e, K ) )
+                    ++degree[ v ];
+            
+            if ( degree[ v ] > 0 && degree[ v ] <= remaining( v ) )
+                queue[ back++ ] = v;
         }
         
-        // Print the second partition matchings
-        for ( Map.Entry<String,Vertex> entry : partition2.entrySet() )
+        int pairs = 0;
+        int front = 0;
+        // The first partition comes first in the free vertices
+        int next = 0;
+        while ( true )
         {
-            Vertex v1 = entry.getValue();
-            Vertex v2 = v1.getMatchedVertex();
-            // Get vertex v2's ranking of v1
-            int ranking = rankings.get( v1 ).indexOf( v2 ) + 1;
-            System.out.println( v1 + ": matched to " + v2 + " (rank " + ranking + ")" );
+            int v, pick = -1;
+            
+            if ( front < back )
+            {
+                // A free edge, if v still has few enough of them since it was queued
+                v = queue[ front++ ];
+                if ( remaining( v ) == 0 || degree[ v ] > remaining( v ) )
+                    continue;
+                
+                for ( int e = network.first[ v ]; e < network.first[ v + 1 ] && pick == -1; ++e )
+                    if ( isFreeEdge( v, e, K ) )
+                        pick = e;
+            }
+            else if ( next < freeCount && free[ next ] < 2 + N )
+            {
+                // The free edge with the lowest threshold of the next vertex that can be matched
+                v = free[ next ];
+                if ( remaining( v ) > 0 )
+                    for ( int e = network.first[ v ]; e < network.first[ v + 1 ]; ++e )
+                        if ( isFreeEdge( v, e, K ) 
+                             && ( pick == -1 || network.threshold[ e ] < network.threshold[ pick ] ) )
+                            pick = e;
+                
+                if ( pick == -1 )
+                    ++next;
+            }
+            else
+                break;
+            
+            if ( pick == -1 )
+                continue;
+            
+            int w = network.head[ pick ];
+            int u = v < 2 + N ? v : w;
+            int arc = v < 2 + N ? pick : network.reverse[ pick ];
+            
+            network.push( terminalEdge[ u ], 1 );
+            network.push( arc, 1 );
+            network.push( terminalEdge[ network.head[ arc ] ], 1 );
+            ++pairs;
+            
+            // The edge is used, and the neighbors of a vertex that can not be matched anymore lose a free edge
+            for ( int x : new int[ ] { v, w } )
+            {
+                --degree[ x ];
+                if ( remaining( x ) > 0 )
+                {
+                    if ( degree[ x ] > 0 && degree[ x ] <= remaining( x ) )
+                        queue[ back++ ] = x;
+                    continue;
+                }
+                
+                for ( int e = network.first[ x ]; e < network.first[ x + 1 ]; ++e )
+                {
+                    int y = network.head[ e ];
+                    if ( y > FlowNetwork.SINK && remaining( y ) > 0 && network.threshold[ e ] <= K
+                         && network.flow[ x < 2 + N ? e : network.reverse[ e ] ] == 0 
+                         && --degree[ y ] > 0 && degree[ y ] <= remaining( y ) )
+                        queue[ back++ ] = y;
+                }
+            }
         }
+        
+        return pairs;
     }
     
     /**
-     * Given K, for any two vertices V1 and V2 in opposite partitions, this
-     * methods adds an edge to the residual graph from V1 and V2 if:
-     *  1) V1 ranked V2 as his Kth choice and
-     *  2) V2 ranked V1 as its <= Kth choice
-     * @param residual The graph were the adges will be added
-     * @param K 
-     * @param currentRanks The current ranks that have been processed for each vertex already
+     * @param v
+     * @return How many more times v can be matched
+     */
+    private int remaining( int v )
+    { return network.residualCapacity( terminalEdge[ v ] ); }
+    
+    /**
+     * @param v
+     * @param e An edge of v
+     * @param K
+     * @return True if e is allowed for K, has not been used and goes to a
+     * vertex of the other partition that can still be matched
+     */
+    private boolean isFreeEdge( int v, int e, int K )
+    {
+        int w = network.head[ e ];
+        if ( w <= FlowNetwork.SINK || network.threshold[ e ] > K || remaining( w ) == 0 )
+            return false;
+        
+        // The edge from the first partition to the second one
+        int arc = v < 2 + N ? e : network.reverse[ e ];
+        return network.flow[ arc ] == 0;
+    }
+    
+    /**
+     * Same as findMatching(), but the max flow of each K phase is found with
+     * Hopcroft-Karp, starting from the matching found for K - 1.
+     * @return The lowest rank K for which everybody was matched
      */
-    private void addBipartiteEdges( Graph residual, int K, Map<Vertex,List<Vertex>> currentRanks )
+    public int findMatchingHopcroftKarp()
     {
-        // Get the Kth choice of each vertex and it to the current rankins seen so far
-        for ( Map.Entry<Vertex,List<Vertex>> entry : rankings.entrySet() )
+        HopcroftKarp hopcroftKarp = new HopcroftKarp( network, 2, N );
+        
+        int K = 0;
+        int matched = 0;
+        while ( matched != N )
         {
-            Vertex currentVertex = entry.getKey();
-            Vertex nextChoice = entry.getValue().get( K - 1 );
-            
-            // If K == 1, the first choice of each vertex is being processed which means the map is empty
-            if ( K == 1 )
-                currentRanks.put( currentVertex, new ArrayList<Graph.Vertex>() );
-            
-            currentRanks.get( currentVertex ).add( nextChoice );
+            K = nextK( K );
+            matched = hopcroftKarp.augment( K );
         }
         
+        storeMatching( hopcroftKarp );
+        
+        return K;
+    }
+    
+    /**
+     * Same as findMatching(), but the max flow of each K phase is found with
+     * the parallel push-relabel engine, continuing the preflow of K - 1.
+     * @return The lowest rank K for which everybody was matched
+     */
+    public int findMatchingPushRelabel()
+    {
+        PushRelabel pushRelabel = new PushRelabel( network, 2, N );
         
-        for ( Map.Entry<Vertex,List<Vertex>> entry : currentRanks.entrySet() )
+        int K = 0;
+        int netFlow = 0;
+        while ( netFlow != N )
         {
-            Vertex currentVertex = entry.getKey();
-            Vertex nextChoice = entry.getValue().get( K - 1 );
-            
-            // If the current vertex's choice also ranked the current vertex <= K, add the edge
-            if ( currentRanks.get( nextChoice ).contains( currentVertex ) )
-                if ( residual.partition1.containsKey( currentVertex.name ) )
-                    residual.adjList.get( currentVertex ).add( residual.partition2.get( nextChoice.name ) );
-                else                    
-                    residual.adjList.get( nextChoice ).add( residual.partition2.get( currentVertex.name ) );
+            K = nextK( K );
+            netFlow = pushRelabel.maxFlow( K );
         }
+        
+        pushRelabel.extractMatching();
+        for ( int v = 2; v < vertices.length; ++v )
+            vertices[ v ].matchedTo( vertices[ pushRelabel.getMate( v ) ] );
+        
+        return K;
     }
     
     /**
-     * Calculates the max flow in the flow graph. First, the appropriate edges are 
-     * inserted in the residual graph Gr. Then, a shortest path in Gr is repeatedly found
-     * and transferred into the flow graph Gf until there are not more such paths or
-     * the total net flow in Gf is equal to N.
-     * @param residual residual Graph Gr
-     * @param K Rank K being considered
-     * @param netFlow Total net flow in Gf found so far
-     * @param currentRanks The ran
-     * @return 
+     * Finds the same K as findMatching(), but binary searches it instead of
+     * trying every K. Each probe uses Hopcroft-Karp, starting from the
+     * matching found by the largest K that failed so far, which is still
+     * valid for any larger K.
+     * @return The lowest rank K for which everybody was matched
      */
-    private int calcNetworkFlow( Graph residual, int K, int netFlow, Map<Vertex,List<Vertex>> currentRanks )
-    {   
-        // Update Gr so it has the appropriate edges for each respective K
-        addBipartiteEdges( residual, K, currentRanks );
+    public int findMatchingBinarySearch()
+    {
+        if ( partition1.size() != partition2.size() )
+            throw new IllegalArgumentException( "There is no matching where everybody is matched." );
         
-        // Find a path in the Gr
-        residual.findPath( residual.SOURCE );
-        // Get the shortest path in Gr
-        List<Vertex> path = residual.getPathToSink();
-                
-        while ( !path.isEmpty() && netFlow < N )
+        HopcroftKarp hopcroftKarp = new HopcroftKarp( network, 2, N );
+        
+        int low = 1;
+        int high = maxK;
+        // The matching of the largest K that failed, and of the smallest K that worked
+        int [ ] lowMatching = hopcroftKarp.saveMatching();
+        int [ ] highMatching = null;
+        int solves = 0;
+        
+        while ( low < high )
         {
-            // Transfer the path from Gr to Gf
-            for ( int i = 0; i < path.size() - 1; ++i )
+            int K = ( low + high ) / 2;
+            
+            hopcroftKarp.loadMatching( lowMatching );
+            ++solves;
+            
+            if ( hopcroftKarp.augment( K ) == N )
             {
-                Vertex v = path.get( i );
-                Vertex w = path.get( i + 1 );
-                
-                /* 
-                 * If the path v->w is being transferred to Gf but Gf has the path
-                 * w->v, then that w->v is simply removed from Gf.
-                 * Otherwise, v->w is added to Gf
-                */
-                
-                if ( adjList.get( w ).contains( v ) )
-                    removeEdge( w.name, v.name );
-                else
-                {
-                    addEdge( v.name, w.name );
-                    
-                    /*
-                     * If neither v or w are the SOURCE and the SINK, then v and 
-                     * w are matched by the added the edge, so that is kept tracked
-                    */
-                    if ( !v.name.equals( "source" ) && !v.name.equals( "sink" ) && 
-                            !w.name.equals( "source" ) && !w.name.equals( "sink" ) )
-                    {
-                        getVertex( v.name ).matchedTo( getVertex( w.name ) );
-                        getVertex( w.name ).matchedTo( getVertex( v.name ) );
-                    }
-                }
-
-                // Remove the edge from Gr
-                residual.removeEdge( v.name, w.name );
-                // Add the reversed edge to Gr
-                residual.adjList.get( w ).add( v );
+                high = K;
+                highMatching = hopcroftKarp.saveMatching();
+            }
+            else
+            {
+                low = K + 1;
+                lowMatching = hopcroftKarp.saveMatching();
             }
+        }
+        
+        // If the largest possible K was never tried, it is tried now
+        if ( highMatching == null )
+        {
+            hopcroftKarp.loadMatching( lowMatching );
+            ++solves;
             
-            // Find the next shortest path in Gr
-            residual.findPath( residual.SOURCE);
-            path = residual.getPathToSink();
-
-            // Every path transfered from Gr to Gf increases the net flow in Gf by 1
-            ++netFlow;
+            if ( hopcroftKarp.augment( low ) != N )
+                throw new IllegalArgumentException( "There is no matching where everybody is matched." );
+            
+            highMatching = hopcroftKarp.saveMatching();
         }
-
-        return netFlow;
+        
+        hopcroftKarp.loadMatching( highMatching );
+        storeMatching( hopcroftKarp );
+        
+        System.out.println( "Binary search over K used " + solves + " max flow calculations." );
+        
+        return low;
     }
     
     /**
-     * @return A list containing all the vertices in the graph.
+     * Find the stable matching where the first partition proposes, which is
+     * usually not the one with the lowest K
+     * @param parallel True to make the proposals in parallel
+     * @return The worst rank given to each other by a matched pair. With
+     * partial preference lists some vertices may be left unmatched, see unmatched()
      */
-    private List<Vertex> getAllVertices()
+    public int findStableMatching( boolean parallel )
     {
-        List<Vertex> vertices = new ArrayList<>();
+        int size1 = partition1.size();
+        int size2 = partition2.size();
         
-        vertices.add( SOURCE );
-        vertices.add( SINK );
+        // The preferences of the first partition, with the rank each choice gave back
+        int [ ] proposerStart = new int[ size1 + 1 ];
+        int [ ] proposerList = new int[ prefStart[ 2 + size1 ] - prefStart[ 2 ] ];
+        int [ ] proposerRank = new int[ proposerList.length ];
+        for ( int p = 0; p <= size1; ++p )
+            proposerStart[ p ] = prefStart[ 2 + p ] - prefStart[ 2 ];
+        for ( int p = 0; p < size1; ++p )
+            for ( int i = proposerStart[ p ]; i < proposerStart[ p + 1 ]; ++i )
+            {
+                int w = prefList[ prefStart[ 2 ] + i ];
+                proposerList[ i ] = w - 2 - size1;
+                proposerRank[ i ] = ranks.get( w, 2 + p );
+            }
         
-        for ( Map.Entry<String,Vertex> entry : partition1.entrySet() )
-            vertices.add( entry.getValue() );
+        StableMatching stableMatching = new StableMatching( size1, size2, proposerStart, 
+                                                            proposerList, proposerRank );
+        int [ ] partner = parallel ? stableMatching.matchParallel() : stableMatching.match();
         
-        for ( Map.Entry<String,Vertex> entry : partition2.entrySet() )
-            vertices.add( entry.getValue() );
+        int worst = 0;
+        for ( int v = 2; v < vertices.length; ++v )
+            vertices[ v ].matchedTo( null );
+        for ( int p = 0; p < size1; ++p )
+            if ( partner[ p ] != -1 )
+            {
+                int v = 2 + p;
+                int w = 2 + size1 + partner[ p ];
+                vertices[ v ].matchedTo( vertices[ w ] );
+                vertices[ w ].matchedTo( vertices[ v ] );
+                worst = Math.max( worst, Math.max( ranks.get( v, w ), ranks.get( w, v ) ) );
+            }
         
-        return vertices;
+        return worst;
     }
     
     /**
-     * Uses BFS to find the shortest path from the start vertex to all other
-     * vertices in the graph.
-     * @param start 
+     * Find the matching with the lowest total of the ranks both vertices of
+     * each pair gave each other, with the auction algorithm
+     * @return The total of the ranks
      */
-    private void findPath( Vertex start )
+    public int findMinimumRankMatching()
     {
-        // Reset all the path-finding related variables of the vertices
-        for ( Vertex v : getAllVertices() )
+        int size1 = partition1.size();
+        if ( size1 != partition2.size() 
+             || new HopcroftKarp( network, 2, N ).augment( maxK ) != N )
+            throw new IllegalArgumentException( "There is no matching where everybody is matched." );
+        
+        // The edges between the partitions, with the vertices numbered from 0 in each one
+        int [ ] rowStart = new int[ size1 + 1 ];
+        List<Integer> cols = new ArrayList<>();
+        List<Integer> costs = new ArrayList<>();
+        for ( int v = 2; v < 2 + size1; ++v )
         {
-            v.setDistance( INFINITY );
-            v.setProcessed( false );
-            v.setPrevious( null );
+            rowStart[ v - 2 ] = cols.size();
+            for ( int e = network.first[ v ]; e < network.first[ v + 1 ]; ++e )
+            {
+                int w = network.head[ e ];
+                if ( w > FlowNetwork.SINK )
+                {
+                    cols.add( w - 2 - size1 );
+                    costs.add( ranks.get( v, w ) + ranks.get( w, v ) );
+                }
+            }
         }
+        rowStart[ size1 ] = cols.size();
         
-        start.setDistance( 0 );
+        int [ ] assigned = new Auction( size1, rowStart, 
+                                        cols.stream().mapToInt( Integer::intValue ).toArray(),
+                                        costs.stream().mapToInt( Integer::intValue ).toArray() ).solve();
         
-        Queue<Vertex> queue = new LinkedList<>();
-        queue.add( start );
-        
-        while ( !queue.isEmpty() )
+        int total = 0;
+        for ( int p = 0; p < size1; ++p )
         {
-            Vertex v = queue.remove();
-            v.setProcessed( true );
-            
-            Set<Vertex> adjacents = v.getAdjacents();
-            
-            // If v doesn't have any adjacents, no further processing is needed
-            if ( adjacents == null )
-                continue;
-            
-            // For every adjacent vertex, increase its distance to dv + 1 if it hasn't been processed
-            for ( Vertex w : v.getAdjacents() )
-                if ( !w.hasBeenProcessed() )
+            int v = 2 + p;
+            int w = 2 + size1 + assigned[ p ];
+            vertices[ v ].matchedTo( vertices[ w ] );
+            vertices[ w ].matchedTo( vertices[ v ] );
+            total += ranks.get( v, w ) + ranks.get( w, v );
+        }
+        
+        return total;
+    }
+    
+    /**
+     * @return A matching engine that can be kept up to date while vertices
+     * and rankings change, numbering the vertices from 0 in order of their IDs
+     */
+    public IncrementalMatching incrementalMatching()
+    {
+        return new IncrementalMatching( 2, partition1.size(), partition2.size(), 
+                                        prefStart, prefList, ranks );
+    }
+    
+    /**
+     * Build the incremental matching, take out all the rankings of the first
+     * vertex and put them back one at a time, which must end with the same K
+     * @return The K after putting the rankings back
+     */
+    public int findMatchingIncremental()
+    {
+        IncrementalMatching incremental = incrementalMatching();
+        
+        int v = 0;
+        int [ ] ranked = Arrays.copyOfRange( prefList, prefStart[ 2 ], prefStart[ 3 ] );
+        for ( int w : ranked )
+            incremental.removePreference( v, w - 2 );
+        for ( int i = 0; i < ranked.length; ++i )
+            incremental.insertPreference( v, ranked[ i ] - 2, i + 1 );
+        
+        if ( incremental.getK() == -1 )
+            throw new IllegalArgumentException( "There is no matching where everybody is matched." );
+        
+        for ( int u = 2; u < vertices.length; ++u )
+            vertices[ u ].matchedTo( vertices[ 2 + incremental.getMate( u - 2 ) ] );
+        
+        return incremental.getK();
+    }
+    
+    /**
+     * Keep track in the vertices of the matching given by the flow network,
+     * where the vertices of the edges between the partitions that have flow
+     * are matched, as many times as their capacities allow
+     */
+    private void storeFlowMatching()
+    {
+        for ( int v = 2; v < vertices.length; ++v )
+            vertices[ v ].matchedTo( null );
+        
+        for ( int v = 2; v < 2 + N; ++v )
+            for ( int e = network.first[ v ]; e < network.first[ v + 1 ]; ++e )
+            {
+                int w = network.head[ e ];
+                if ( w > FlowNetwork.SINK && network.flow[ e ] > 0 )
                 {
-                    w.setDistance( v.getDistance() + 1 );
-                    w.setPrevious( v );
-                    queue.add( w );
+                    vertices[ v ].addMatch( vertices[ w ] );
+                    vertices[ w ].addMatch( vertices[ v ] );
                 }
-        }
+            }
+    }
+    
+    /**
+     * @return True if some vertex can be matched more than once, which only findMatching() supports
+     */
+    public boolean hasCapacities()
+    { return capacity1 != N || capacity2 != partition2.size(); }
+    
+    /**
+     * Keep track of the matching found by an engine in the vertices
+     * @param hopcroftKarp 
+     */
+    private void storeMatching( HopcroftKarp hopcroftKarp )
+    {
+        for ( int v = 2; v < vertices.length; ++v )
+            vertices[ v ].matchedTo( vertices[ hopcroftKarp.getMate( v ) ] );
+    }
+    
+    /**
+     * @return The number of vertices of both partitions without a pair in the
+     * last matching that was found
+     */
+    public int unmatched()
+    {
+        int count = 0;
+        for ( int v = 2; v < vertices.length; ++v )
+            if ( vertices[ v ].getMatchedVertices().isEmpty() )
+                ++count;
+        
+        return count;
     }
     
     /**
-     * @return List of vertices representing the shortest path from the start vertex
-     * (as indicated by the findPath() parameter) to the SINK.
+     * Print the matching for all vertices in the graph
+     * @param K 
      */
-    private ArrayList<Vertex> getPathToSink()
+    private void printMatching( int K )
     {
-        ArrayList<Vertex> path = new ArrayList<>();
-        Stack<Vertex> stack = new Stack<>();
+        System.out.println( "Everybody was matched with their top " + K + " preferences.");
         
-        // Push all the vertices from the SINK to the start vertex into a stack
-        Vertex v = SINK;
-        while ( v != null )
+        // Print the first partition matchings, once for each time a vertex was matched
+        for ( Map.Entry<String,Vertex> entry : partition1.entrySet() )
         {
-            stack.add( v );
-            v = v.getPrevious();
+            Vertex v1 = entry.getValue();
+            for ( Vertex v2 : v1.getMatchedVertices() )
+            {
+                // Get vertex v1's ranking of v2
+                int ranking = ranks.get( v1.id, v2.id );
+                System.out.println( v1 + ": matched to " + v2 + " (rank " + ranking + ")" );
+            }
         }
         
-        /*
-         * If the size of the stack is 1, that means the only vertex in it is
-         * the SINK so there is no path.
-        */
-        if ( stack.size() == 1 )
-            stack.pop();
-        
-        // Pop all the elements in the stack to get the vertices from the start to SINK
-        while ( !stack.isEmpty() )
-            path.add( stack.pop() );
-        
-        return path;
+        // Print the second partition matchings
+        for ( Map.Entry<String,Vertex> entry : partition2.entrySet() )
+        {
+            Vertex v1 = entry.getValue();
+            for ( Vertex v2 : v1.getMatchedVertices() )
+            {
+                // Get vertex v2's ranking of v1
+                int ranking = ranks.get( v1.id, v2.id );
+                System.out.println( v1 + ": matched to " + v2 + " (rank " + ranking + ")" );
+            }
+        }
+    }
+    
+    /**
+     * Calculates the max flow in the flow graph. A shortest path in the residual
+     * graph Gr, using only the edges allowed for K, is repeatedly found and its
+     * flow is added to the flow graph Gf until there are not more such paths or
+     * the total net flow in Gf is equal to N. Since Gf and Gr are the same
+     * network, adding flow to an edge also takes it away from its reversed edge.
+     * @param K Rank K being considered
+     * @param netFlow Total net flow in Gf found so far
+     * @return 
+     */
+    private int calcNetworkFlow( int K, int netFlow )
+    {   
+        // While there is a shortest path in Gr
+        while ( netFlow < capacity1 && network.findPath( K ) )
+        {
+            // Send flow through the path, going back from SINK through the edges of the path
+            int w = FlowNetwork.SINK;
+            while ( w != FlowNetwork.SOURCE )
+            {
+                int arc = network.getPrevEdge( w );
+                int v = network.tail( arc );
+                
+                network.push( arc, 1 );
+                w = v;
+            }
+
+            // Every path increases the net flow in Gf by 1
+            ++netFlow;
+        }
+
+        return netFlow;
     }
     
     /**
@@ -496,41 +792,32 @@ class Graph
     private class Vertex
     {
         String name;
-        int distance;
-        boolean processed;
-        Vertex prev;
-        Vertex matchedTo;
+        // The ID of the vertex in the flow network
+        int id;
+        // How many times the vertex can be matched
+        int capacity = 1;
+        List<Vertex> matchedTo = new ArrayList<>();
         
         public Vertex( String name )
         { 
             this.name = name; 
         }
         
-        public Set<Vertex> getAdjacents()
-        { return adjList.get( this ); }
-        
-        public int getDistance()
-        { return distance; }
-        
-        public void setDistance( int newDistance )
-        { distance = newDistance; }
-        
-        public boolean hasBeenProcessed()
-        { return processed; }
-        
-        public void setProcessed( boolean flag )
-        { processed = flag; }
-        
-        public Vertex getPrevious()
-        { return prev; }
-        
-        public void setPrevious( Vertex newPrev )
-        { prev = newPrev; }
-        
+        /**
+         * Replace the matches of the vertex with v, or with none if v is null
+         * @param v 
+         */
         public void matchedTo( Vertex v )
-        { matchedTo = v; }
+        { 
+            matchedTo.clear();
+            if ( v != null )
+                matchedTo.add( v );
+        }
+        
+        public void addMatch( Vertex v )
+        { matchedTo.add( v ); }
         
-        public Vertex getMatchedVertex()
+        public List<Vertex> getMatchedVertices()
         { return matchedTo; }
 
         @Override
@@ -556,20 +843,1783 @@ class Graph
     }
 }
 
-public class BipartiteMatching
+/*
+ * Flow network where every vertex is identified by an int: SOURCE is 0, SINK
+ * is 1 and the vertices of the two partitions come after them.
+ * The edges are stored in arrays, with the edges leaving vertex v in the
+ * positions first[ v ] to first[ v + 1 ] - 1. Every edge has a reversed edge
+ * with no capacity and the opposite flow, so the residual graph is the same
+ * network: the residual capacity of an edge is its capacity minus its flow.
+ */
+class FlowNetwork
 {
-    private static void processFile( String filename )
+    public static final int SOURCE = 0;
+    public static final int SINK = 1;
+    
+    int numVertices;
+    // Where the edges of each vertex start
+    int [ ] first;
+    // The vertex each edge goes to
+    int [ ] head;
+    // The position of the reversed edge of each edge
+    int [ ] reverse;
+    // The smallest rank K for which each edge can be used
+    int [ ] threshold;
+    // The capacity of each edge
+    int [ ] capacity;
+    // The flow going through each edge, which is the opposite of the flow of its reversed edge
+    int [ ] flow;
+    
+    // Used by findPath(): the edge used to reach each vertex and the queue of the BFS
+    private int [ ] prevEdge;
+    private int [ ] queue;
+    /*
+     * A vertex was reached by the current BFS if its stamp is equal to 'epoch'.
+     * Starting a new BFS only needs to increment 'epoch' instead of resetting every vertex
+    */
+    private int [ ] visited;
+    private int epoch;
+    
+    /**
+     * @param numVertices
+     * @param edges Each edge is given as { from, to, capacity, threshold }
+     */
+    public FlowNetwork( int numVertices, List<int [ ]> edges )
     {
-        try
+        this.numVertices = numVertices;
+        
+        // Count the edges leaving each vertex, including the reversed ones
+        first = new int[ numVertices + 1 ];
+        for ( int [ ] edge : edges )
         {
-            Graph graph = new Graph( filename );
+            first[ edge[ 0 ] + 1 ]++;
+            first[ edge[ 1 ] + 1 ]++;
+        }
+        for ( int v = 0; v < numVertices; ++v )
+            first[ v + 1 ] += first[ v ];
+        
+        int numEdges = 2 * edges.size();
+        head = new int[ numEdges ];
+        reverse = new int[ numEdges ];
+        threshold = new int[ numEdges ];
+        capacity = new int[ numEdges ];
+        flow = new int[ numEdges ];
+        
+        int [ ] next = Arrays.copyOf( first, numVertices );
+        for ( int [ ] edge : edges )
+        {
+            int e = next[ edge[ 0 ] ]++;
+            int r = next[ edge[ 1 ] ]++;
             
-            System.out.println( "File: " + filename );
+            head[ e ] = edge[ 1 ];
+            head[ r ] = edge[ 0 ];
+            reverse[ e ] = r;
+            reverse[ r ] = e;
+            capacity[ e ] = edge[ 2 ];
+            threshold[ e ] = threshold[ r ] = edge[ 3 ];
+        }
+        
+        prevEdge = new int[ numVertices ];
+        queue = new int[ numVertices ];
+        visited = new int[ numVertices ];
+    }
+    
+    /**
+     * @param edge
+     * @return How much more flow can go through the edge. For a reversed edge
+     * this is the flow going through the original one, which can be canceled.
+     */
+    public int residualCapacity( int edge )
+    { return capacity[ edge ] - flow[ edge ]; }
+    
+    /**
+     * Send flow through an edge, which takes away the same flow from its reversed edge
+     * @param edge
+     * @param amount 
+     */
+    public void push( int edge, int amount )
+    {
+        flow[ edge ] += amount;
+        flow[ reverse[ edge ] ] -= amount;
+    }
+    
+    /**
+     * Remove all the flow from the network
+     */
+    public void clearFlow()
+    { Arrays.fill( flow, 0 ); }
+    
+    /**
+     * @return The largest K needed to use every edge
+     */
+    public int maxThreshold()
+    {
+        int max = 0;
+        for ( int t : threshold )
+            max = Math.max( max, t );
+        
+        return max;
+    }
+    
+    /**
+     * @param edge
+     * @return The vertex the edge leaves from
+     */
+    public int tail( int edge )
+    { return head[ reverse[ edge ] ]; }
+    
+    /**
+     * Uses BFS to find the shortest path from SOURCE to SINK, using only the
+     * edges that have capacity and can be used for K. The search stops as soon
+     * as SINK is reached, and the path can be followed back from SINK with
+     * getPrevEdge().
+     * @param K
+     * @return True if there is a path
+     */
+    public boolean findPath( int K )
+    {
+        // When the stamps are about to overflow, they are reset
+        if ( epoch == Integer.MAX_VALUE )
+        {
+            Arrays.fill( visited, 0 );
+            epoch = 0;
+        }
+        ++epoch;
+        
+        visited[ SOURCE ] = epoch;
+        int front = 0, back = 0;
+        queue[ back++ ] = SOURCE;
+        
+        while ( front < back )
+        {
+            int v = queue[ front++ ];
+            
+            for ( int e = first[ v ]; e < first[ v + 1 ]; ++e )
+            {
+                int w = head[ e ];
+                if ( residualCapacity( e ) > 0 && threshold[ e ] <= K && visited[ w ] != epoch )
+                {
+                    visited[ w ] = epoch;
+                    prevEdge[ w ] = e;
+                    
+                    // The first time SINK is reached is through a shortest path
+                    if ( w == SINK )
+                        return true;
+                    
+                    queue[ back++ ] = w;
+                }
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @param v
+     * @return The edge used to reach v in the last call to findPath()
+     */
+    public int getPrevEdge( int v )
+    { return prevEdge[ v ]; }
+}
+
+/*
+ * Stores the rank every vertex gave to each vertex of the other partition, so
+ * it can be found in O(1). The vertices of the first partition have IDs firstId
+ * to firstId + size1 - 1, and those of the second partition come right after.
+ * If most of the full table would be empty, only the given ranks are stored:
+ * the rankings of each vertex sorted by ID, which are binary searched.
+ * A rank of 0 means the vertex did not rank the other one.
+ */
+class RankTable
+{
+    // The largest number of entries of the full table
+    private static final long MAX_ENTRIES = 1L << 26;
+    
+    private int firstId;
+    private int size1;
+    private int size2;
+    // The full table, with the row of each vertex of the first partition and then those of the second
+    private short [ ] table;
+    // The rankings of each vertex sorted by the ID of the vertex ranked, and the rank given to it
+    private int [ ] start;
+    private int [ ] sortedIds;
+    private int [ ] sortedRanks;
+    
+    /**
+     * @param firstId
+     * @param size1
+     * @param size2
+     * @param prefStart Where the rankings of each vertex start in prefList, by ID
+     * @param prefList The IDs of the vertices ranked, best first
+     */
+    public RankTable( int firstId, int size1, int size2, int [ ] prefStart, int [ ] prefList )
+    {
+        this.firstId = firstId;
+        this.size1 = size1;
+        this.size2 = size2;
+        
+        long entries = 2L * size1 * size2;
+        // Ranks must also fit in a short
+        if ( entries <= MAX_ENTRIES && entries <= 2L * prefList.length 
+             && Math.max( size1, size2 ) <= Short.MAX_VALUE )
+        {
+            table = new short[ (int) entries ];
+            for ( int v = firstId; v < firstId + size1 + size2; ++v )
+                for ( int i = prefStart[ v ]; i < prefStart[ v + 1 ]; ++i )
+                    table[ position( v, prefList[ i ] ) ] = (short) ( i - prefStart[ v ] + 1 );
+            
+            return;
+        }
+        
+        start = prefStart;
+        sortedIds = new int[ prefList.length ];
+        sortedRanks = new int[ prefList.length ];
+        for ( int v = firstId; v < firstId + size1 + size2; ++v )
+        {
+            int from = prefStart[ v ], to = prefStart[ v + 1 ];
+            long [ ] pairs = new long[ to - from ];
+            for ( int i = from; i < to; ++i )
+                pairs[ i - from ] = ( (long) prefList[ i ] << 32 ) | ( i - from + 1 );
+            Arrays.sort( pairs );
+            
+            for ( int i = from; i < to; ++i )
+            {
+                sortedIds[ i ] = (int) ( pairs[ i - from ] >>> 32 );
+                sortedRanks[ i ] = (int) pairs[ i - from ];
+            }
+        }
+    }
+    
+    /**
+     * @param v
+     * @param w
+     * @return The rank v gave to w, or 0 if v did not rank w
+     */
+    public int get( int v, int w )
+    {
+        if ( table != null )
+            return table[ position( v, w ) ];
+        
+        int i = Arrays.binarySearch( sortedIds, start[ v ], start[ v + 1 ], w );
+        return i < 0 ? 0 : sortedRanks[ i ];
+    }
+    
+    private int position( int v, int w )
+    {
+        int v1 = v - firstId;
+        if ( v1 < size1 )
+            return v1 * size2 + ( w - firstId - size1 );
+        
+        return size1 * size2 + ( v1 - size1 ) * size1 + ( w - firstId );
+    }
+}
+
+/*
+ * Finds a maximum matching between the two partitions of a FlowNetwork using
+ * Hopcroft-Karp: each round uses BFS to find the length of the shortest
+ * augmenting paths and then DFS to augment along a maximal set of vertex
+ * disjoint paths of that length.
+ * The matching is kept between calls, so the matching found for K - 1 is
+ * the starting point for K.
+ */
+class HopcroftKarp
+{
+    private static final int INFINITY = Integer.MAX_VALUE;
+    
+    private FlowNetwork network;
+    // The IDs of the first partition are firstId to firstId + size - 1
+    private int firstId;
+    private int size;
+    // The vertex each vertex is matched to, or -1
+    private int [ ] mate;
+    private int matched;
+    
+    // Distance of each vertex of the first partition in the BFS layers
+    private int [ ] distance;
+    // The next edge to try of each vertex in the DFS
+    private int [ ] nextEdge;
+    private int [ ] queue;
+    // The DFS path: the vertices of the first partition and the vertex each one goes to
+    private int [ ] stack;
+    private int [ ] via;
+    
+    public HopcroftKarp( FlowNetwork network, int firstId, int size )
+    {
+        this.network = network;
+        this.firstId = firstId;
+        this.size = size;
+        
+        mate = new int[ network.numVertices ];
+        Arrays.fill( mate, -1 );
+        
+        distance = new int[ network.numVertices ];
+        nextEdge = new int[ network.numVertices ];
+        queue = new int[ size ];
+        stack = new int[ size + 1 ];
+        via = new int[ size + 1 ];
+    }
+    
+    /**
+     * Augment the matching using only the edges allowed for K
+     * @param K
+     * @return The number of vertices of the first partition that are matched
+     */
+    public int augment( int K )
+    {
+        int limit;
+        while ( ( limit = buildLayers( K ) ) != INFINITY )
+        {
+            for ( int u = firstId; u < firstId + size; ++u )
+                nextEdge[ u ] = network.first[ u ];
+            
+            for ( int u = firstId; u < firstId + size; ++u )
+                if ( mate[ u ] == -1 && augmentFrom( u, K, limit ) )
+                    ++matched;
+        }
+        
+        return matched;
+    }
+    
+    /**
+     * @param v
+     * @return The vertex v is matched to, or -1
+     */
+    public int getMate( int v )
+    { return mate[ v ]; }
+    
+    /**
+     * @return A copy of the current matching
+     */
+    public int [ ] saveMatching()
+    { return mate.clone(); }
+    
+    /**
+     * Replace the current matching with one returned by saveMatching()
+     * @param saved 
+     */
+    public void loadMatching( int [ ] saved )
+    {
+        System.arraycopy( saved, 0, mate, 0, mate.length );
+        
+        matched = 0;
+        for ( int u = firstId; u < firstId + size; ++u )
+            if ( mate[ u ] != -1 )
+                ++matched;
+    }
+    
+    /**
+     * BFS from all the unmatched vertices of the first partition, going through
+     * unmatched edges to the second partition and back through matched ones.
+     * @param K
+     * @return The distance of the vertices that have an edge to an unmatched
+     * vertex of the second partition, or INFINITY if there are none
+     */
+    private int buildLayers( int K )
+    {
+        int front = 0, back = 0;
+        for ( int u = firstId; u < firstId + size; ++u )
+            if ( mate[ u ] == -1 )
+            {
+                distance[ u ] = 0;
+                queue[ back++ ] = u;
+            }
+            else
+                distance[ u ] = INFINITY;
+        
+        int limit = INFINITY;
+        while ( front < back )
+        {
+            int u = queue[ front++ ];
+            // Longer paths are not needed in this round
+            if ( distance[ u ] >= limit )
+                break;
+            
+            for ( int e = network.first[ u ]; e < network.first[ u + 1 ]; ++e )
+            {
+                int v = network.head[ e ];
+                if ( v <= FlowNetwork.SINK || network.threshold[ e ] > K )
+                    continue;
+                
+                int w = mate[ v ];
+                if ( w == -1 )
+                    limit = distance[ u ];
+                else if ( distance[ w ] == INFINITY )
+                {
+                    distance[ w ] = distance[ u ] + 1;
+                    queue[ back++ ] = w;
+                }
+            }
+        }
+        
+        return limit;
+    }
+    
+    /**
+     * Iterative DFS through the BFS layers looking for an augmenting path
+     * that starts at 'root'. If one is found, the matching is flipped along it.
+     * @return True if the matching was augmented
+     */
+    private boolean augmentFrom( int root, int K, int limit )
+    {
+        int top = 0;
+        stack[ top++ ] = root;
+        
+        while ( top > 0 )
+        {
+            int u = stack[ top - 1 ];
+            
+            // If all the edges of u were tried, no path goes through it in this round
+            if ( nextEdge[ u ] == network.first[ u + 1 ] )
+            {
+                distance[ u ] = INFINITY;
+                --top;
+                continue;
+            }
+            
+            int e = nextEdge[ u ]++;
+            int v = network.head[ e ];
+            if ( v <= FlowNetwork.SINK || network.threshold[ e ] > K )
+                continue;
+            
+            int w = mate[ v ];
+            if ( w == -1 )
+            {
+                if ( distance[ u ] != limit )
+                    continue;
+                
+                // Flip the matching along the path
+                via[ top - 1 ] = v;
+                for ( int i = top - 1; i >= 0; --i )
+                {
+                    mate[ stack[ i ] ] = via[ i ];
+                    mate[ via[ i ] ] = stack[ i ];
+                }
+                
+                return true;
+            }
+            
+            if ( distance[ w ] == distance[ u ] + 1 )
+            {
+                via[ top - 1 ] = v;
+                stack[ top++ ] = w;
+            }
+        }
+        
+        return false;
+    }
+}
+
+/**
+ * Push-relabel max flow over a FlowNetwork, using only the edges allowed for
+ * a rank threshold K. Every round, all the active vertices are discharged in
+ * parallel using the labels of the previous round, and then the ones that
+ * still have excess are relabeled. Since a push from v to w needs
+ * label(v) = label(w) + 1, two vertices can never push over the same pair of
+ * edges in the same round, so only the excess that is received is shared.
+ * The labels are recomputed with a BFS from the sink when the engine starts,
+ * when K changes and after every numVertices relabels (global relabeling),
+ * and vertices above an empty label are lifted out of the way (gap heuristic).
+ * Only the first phase is run: excess that cannot reach the sink is left
+ * where it is, which is enough to know the max flow and the matching.
+ */
+class PushRelabel
+{
+    // Rounds with fewer active vertices are not worth splitting between threads
+    private static final int PARALLEL_THRESHOLD = 64;
+    
+    private FlowNetwork network;
+    // The IDs of the first partition are firstId to firstId + size - 1
+    private int firstId;
+    private int size;
+    // A vertex with this label can not reach the sink
+    private int n;
+    
+    private int [ ] label;
+    private int [ ] excess;
+    // The excess pushed to each vertex in the current round, and the vertices it was pushed to
+    private AtomicIntegerArray received;
+    private int [ ] receivers;
+    private AtomicInteger numReceivers;
+    /*
+     * For the gap heuristic, the vertices with each label below n in a doubly
+     * linked list: bucketFirst[ label ] is the first one, or -1 if there are
+     * none. No vertex has a label between maxLabel and n.
+    */
+    private int [ ] bucketFirst;
+    private int [ ] bucketNext;
+    private int [ ] bucketPrev;
+    private int maxLabel;
+    
+    private int [ ] active;
+    private int numActive;
+    // The active vertices that still have excess after being discharged
+    private boolean [ ] stuck;
+    private int [ ] newLabel;
+    private int relabels;
+    // The last round each vertex was made active in
+    private int [ ] inRound;
+    private int round;
+    
+    private int [ ] queue;
+    private int [ ] mate;
+    
+    public PushRelabel( FlowNetwork network, int firstId, int size )
+    {
+        this.network = network;
+        this.firstId = firstId;
+        this.size = size;
+        n = network.numVertices;
+        
+        label = new int[ n ];
+        excess = new int[ n ];
+        received = new AtomicIntegerArray( n );
+        receivers = new int[ n ];
+        numReceivers = new AtomicInteger( );
+        bucketFirst = new int[ n ];
+        bucketNext = new int[ n ];
+        bucketPrev = new int[ n ];
+        active = new int[ n ];
+        stuck = new boolean[ n ];
+        newLabel = new int[ n ];
+        inRound = new int[ n ];
+        queue = new int[ n ];
+        mate = new int[ n ];
+        
+        // Saturate the edges out of the source, which are allowed for every K
+        network.clearFlow();
+        for ( int e = network.first[ FlowNetwork.SOURCE ]; e < network.first[ FlowNetwork.SOURCE + 1 ]; ++e )
+        {
+            int amount = network.residualCapacity( e );
+            network.push( e, amount );
+            excess[ network.head[ e ] ] += amount;
+        }
+    }
+    
+    /**
+     * Continue the preflow of the previous K with the edges allowed for K
+     * @param K
+     * @return The max flow using the edges allowed for K
+     */
+    public int maxFlow( int K )
+    {
+        globalRelabel( K );
+        findActive();
+        
+        while ( numActive > 0 )
+        {
+            numReceivers.set( 0 );
+            forEachActive( v -> discharge( v, K ) );
+            forEachActive( v -> {
+                if ( stuck[ v ] )
+                    newLabel[ v ] = minNeighborLabel( v, K );
+            } );
+            
+            for ( int i = 0; i < numReceivers.get( ); ++i )
+            {
+                int w = receivers[ i ];
+                excess[ w ] += received.getAndSet( w, 0 );
+            }
+            
+            for ( int i = 0; i < numActive; ++i )
+            {
+                int v = active[ i ];
+                if ( stuck[ v ] )
+                    // The gap heuristic may have lifted it already
+                    relabel( v, Math.max( label[ v ], newLabel[ v ] ) );
+            }
+            
+            if ( relabels >= n )
+            {
+                globalRelabel( K );
+                findActive();
+            }
+            else
+                nextActive();
+        }
+        
+        return excess[ FlowNetwork.SINK ];
+    }
+    
+    /**
+     * Match every vertex of the second partition that sends its flow to the sink
+     * with one of the vertices of the first partition that sends flow to it
+     */
+    public void extractMatching()
+    {
+        Arrays.fill( mate, -1 );
+        
+        // The edges out of the sink carry the negated flow of the edges into it
+        boolean [ ] toSink = new boolean[ n ];
+        for ( int e = network.first[ FlowNetwork.SINK ]; e < network.first[ FlowNetwork.SINK + 1 ]; ++e )
+            toSink[ network.head[ e ] ] = network.flow[ e ] < 0;
+        
+        for ( int u = firstId; u < firstId + size; ++u )
+            for ( int e = network.first[ u ]; e < network.first[ u + 1 ]; ++e )
+            {
+                int v = network.head[ e ];
+                if ( v > FlowNetwork.SINK && network.flow[ e ] > 0
+                     && toSink[ v ] && mate[ v ] == -1 )
+                {
+                    mate[ u ] = v;
+                    mate[ v ] = u;
+                    break;
+                }
+            }
+    }
+    
+    /**
+     * @param v
+     * @return The vertex v is matched to in the last extracted matching, or -1
+     */
+    public int getMate( int v )
+    { return mate[ v ]; }
+    
+    /**
+     * Push as much of the excess of v as possible through admissible edges
+     * @param v
+     * @param K 
+     */
+    private void discharge( int v, int K )
+    {
+        int remaining = excess[ v ];
+        
+        for ( int e = network.first[ v ]; e < network.first[ v + 1 ] && remaining > 0; ++e )
+        {
+            int w = network.head[ e ];
+            if ( network.threshold[ e ] > K || label[ v ] != label[ w ] + 1 )
+                continue;
+            
+            int amount = Math.min( remaining, network.residualCapacity( e ) );
+            if ( amount > 0 )
+            {
+                network.push( e, amount );
+                if ( received.getAndAdd( w, amount ) == 0 )
+                    receivers[ numReceivers.getAndIncrement() ] = w;
+                remaining -= amount;
+            }
+        }
+        
+        excess[ v ] = remaining;
+        stuck[ v ] = remaining > 0;
+    }
+    
+    /**
+     * @param v
+     * @param K
+     * @return One more than the lowest label v can push to, or n if it can not push anywhere
+     */
+    private int minNeighborLabel( int v, int K )
+    {
+        int min = n - 1;
+        for ( int e = network.first[ v ]; e < network.first[ v + 1 ]; ++e )
+            if ( network.threshold[ e ] <= K && network.residualCapacity( e ) > 0 )
+                min = Math.min( min, label[ network.head[ e ] ] );
+        
+        return min + 1;
+    }
+    
+    /**
+     * Change the label of v, and if no vertex is left with its old label,
+     * none of the vertices above it can reach the sink anymore. Only the
+     * buckets from the gap up to maxLabel are looked at, instead of every vertex.
+     * @param v
+     * @param to 
+     */
+    private void relabel( int v, int to )
+    {
+        int from = label[ v ];
+        ++relabels;
+        setLabel( v, to );
+        
+        if ( from < n && bucketFirst[ from ] == -1 )
+        {
+            for ( int h = from + 1; h <= maxLabel; ++h )
+                while ( bucketFirst[ h ] != -1 )
+                    setLabel( bucketFirst[ h ], n );
+            maxLabel = from - 1;
+        }
+    }
+    
+    /**
+     * Move v to the bucket of its new label
+     * @param v
+     * @param to 
+     */
+    private void setLabel( int v, int to )
+    {
+        if ( label[ v ] < n )
+        {
+            if ( bucketPrev[ v ] == -1 )
+                bucketFirst[ label[ v ] ] = bucketNext[ v ];
+            else
+                bucketNext[ bucketPrev[ v ] ] = bucketNext[ v ];
+            if ( bucketNext[ v ] != -1 )
+                bucketPrev[ bucketNext[ v ] ] = bucketPrev[ v ];
+        }
+        
+        label[ v ] = to;
+        if ( to < n )
+            addToBucket( v );
+    }
+    
+    private void addToBucket( int v )
+    {
+        int h = label[ v ];
+        bucketPrev[ v ] = -1;
+        bucketNext[ v ] = bucketFirst[ h ];
+        if ( bucketFirst[ h ] != -1 )
+            bucketPrev[ bucketFirst[ h ] ] = v;
+        bucketFirst[ h ] = v;
+        maxLabel = Math.max( maxLabel, h );
+    }
+    
+    /**
+     * Set every label to the exact distance to the sink in the residual graph
+     * @param K 
+     */
+    private void globalRelabel( int K )
+    {
+        Arrays.fill( label, n );
+        Arrays.fill( bucketFirst, -1 );
+        maxLabel = 0;
+        relabels = 0;
+        
+        int front = 0, back = 0;
+        label[ FlowNetwork.SINK ] = 0;
+        queue[ back++ ] = FlowNetwork.SINK;
+        
+        while ( front < back )
+        {
+            int w = queue[ front++ ];
+            for ( int e = network.first[ w ]; e < network.first[ w + 1 ]; ++e )
+            {
+                // The edge from v to w has residual capacity
+                int v = network.head[ e ];
+                int backEdge = network.reverse[ e ];
+                // The edges of w are next to each other, so their thresholds are checked first
+                if ( network.threshold[ e ] <= K && label[ v ] == n && v != FlowNetwork.SOURCE
+                     && network.residualCapacity( backEdge ) > 0 )
+                {
+                    label[ v ] = label[ w ] + 1;
+                    queue[ back++ ] = v;
+                }
+            }
+        }
+        
+        for ( int v = 0; v < n; ++v )
+            if ( label[ v ] < n )
+                addToBucket( v );
+    }
+    
+    /**
+     * Make every vertex with excess that can still reach the sink active
+     */
+    private void findActive()
+    {
+        numActive = 0;
+        for ( int v = 0; v < n; ++v )
+            if ( isActive( v ) )
+                active[ numActive++ ] = v;
+    }
+    
+    /**
+     * Only the vertices that were stuck or received excess in the last round
+     * can be active in the next one
+     */
+    private void nextActive()
+    {
+        ++round;
+        int count = 0;
+        
+        for ( int i = 0; i < numActive; ++i )
+        {
+            int v = active[ i ];
+            if ( stuck[ v ] )
+            {
+                stuck[ v ] = false;
+                if ( isActive( v ) )
+                {
+                    inRound[ v ] = round;
+                    active[ count++ ] = v;
+                }
+            }
+        }
+        
+        for ( int i = 0; i < numReceivers.get( ); ++i )
+        {
+            int w = receivers[ i ];
+            if ( inRound[ w ] != round && isActive( w ) )
+            {
+                inRound[ w ] = round;
+                active[ count++ ] = w;
+            }
+        }
+        
+        numActive = count;
+    }
+    
+    private boolean isActive( int v )
+    {
+        return v != FlowNetwork.SOURCE && v != FlowNetwork.SINK
+               && excess[ v ] > 0 && label[ v ] < n;
+    }
+    
+    /**
+     * Run the action on every active vertex, in parallel if there are enough of them
+     * @param action 
+     */
+    private void forEachActive( IntConsumer action )
+    {
+        IntStream range = IntStream.range( 0, numActive );
+        if ( numActive >= PARALLEL_THRESHOLD )
+            range = range.parallel();
+        
+        range.forEach( i -> action.accept( active[ i ] ) );
+    }
+}
+
+/**
+ * Stable matching (Gale-Shapley) where the first partition proposes, on integer
+ * indexed preferences. The preferences of proposer p are the acceptors
+ * prefList[ prefStart[ p ] ] to prefList[ prefStart[ p + 1 ] - 1 ], best first,
+ * and prefRank holds the rank each of those acceptors gave to p, or 0 if it
+ * would rather stay unmatched than be matched to p.
+ * Both variants find the proposer-optimal stable matching, which does not
+ * depend on the order of the proposals.
+ */
+class StableMatching
+{
+    private static final int UNMATCHED = -1;
+    // The rank an acceptor holding no proposal compares with
+    private static final int NO_RANK = Integer.MAX_VALUE;
+    
+    private int numProposers;
+    private int numAcceptors;
+    private int [ ] prefStart;
+    private int [ ] prefList;
+    private int [ ] prefRank;
+    
+    // The next entry in its preferences each proposer will propose to
+    private int [ ] next;
+    
+    public StableMatching( int numProposers, int numAcceptors, 
+                           int [ ] prefStart, int [ ] prefList, int [ ] prefRank )
+    {
+        this.numProposers = numProposers;
+        this.numAcceptors = numAcceptors;
+        this.prefStart = prefStart;
+        this.prefList = prefList;
+        this.prefRank = prefRank;
+        
+        next = new int[ numProposers ];
+    }
+    
+    /**
+     * Every free proposer proposes to its next choice, which keeps the best
+     * proposal it has received so far
+     * @return The acceptor each proposer is matched to, or -1
+     */
+    public int [ ] match()
+    {
+        int [ ] holder = new int[ numAcceptors ];
+        int [ ] holderRank = new int[ numAcceptors ];
+        Arrays.fill( holder, UNMATCHED );
+        Arrays.fill( holderRank, NO_RANK );
+        System.arraycopy( prefStart, 0, next, 0, numProposers );
+        
+        for ( int p = 0; p < numProposers; ++p )
+        {
+            // A rejected proposer keeps proposing, and so does the one it displaced
+            int proposer = p;
+            while ( proposer != UNMATCHED && next[ proposer ] < prefStart[ proposer + 1 ] )
+            {
+                int i = next[ proposer ]++;
+                int a = prefList[ i ];
+                int rank = prefRank[ i ];
+                
+                if ( rank != 0 && rank < holderRank[ a ] )
+                {
+                    int displaced = holder[ a ];
+                    holder[ a ] = proposer;
+                    holderRank[ a ] = rank;
+                    proposer = displaced;
+                }
+            }
+        }
+        
+        return partners( holder );
+    }
+    
+    /**
+     * McVitie-Wilson: the proposers are added in parallel, each one making its
+     * chain of proposals and taking over the one it displaces. Each acceptor
+     * holds its proposal as ( rank, proposer ) in one long, which is only
+     * replaced with compare and set, so a proposal is never lost. A proposer is
+     * only ever handled by the thread that added or displaced it.
+     * @return The acceptor each proposer is matched to, or -1
+     */
+    public int [ ] matchParallel()
+    {
+        AtomicLongArray state = new AtomicLongArray( numAcceptors );
+        for ( int a = 0; a < numAcceptors; ++a )
+            state.set( a, pack( NO_RANK, UNMATCHED ) );
+        System.arraycopy( prefStart, 0, next, 0, numProposers );
+        
+        IntStream.range( 0, numProposers ).parallel().forEach( p -> {
+            int proposer = p;
+            while ( proposer != UNMATCHED && next[ proposer ] < prefStart[ proposer + 1 ] )
+            {
+                int i = next[ proposer ]++;
+                int a = prefList[ i ];
+                int rank = prefRank[ i ];
+                if ( rank == 0 )
+                    continue;
+                
+                long proposal = pack( rank, proposer );
+                long current;
+                do
+                {
+                    current = state.get( a );
+                    if ( rank( current ) <= rank )
+                        break;
+                }
+                while ( !state.compareAndSet( a, current, proposal ) );
+                
+                // If the proposal was accepted, the proposer it displaced continues
+                if ( rank( current ) > rank )
+                    proposer = proposer( current );
+            }
+        } );
+        
+        int [ ] holder = new int[ numAcceptors ];
+        for ( int a = 0; a < numAcceptors; ++a )
+            holder[ a ] = proposer( state.get( a ) );
+        
+        return partners( holder );
+    }
+    
+    /**
+     * @param holder The proposer each acceptor holds, or -1
+     * @return The acceptor each proposer is matched to, or -1
+     */
+    private int [ ] partners( int [ ] holder )
+    {
+        int [ ] partner = new int[ numProposers ];
+        Arrays.fill( partner, UNMATCHED );
+        
+        for ( int a = 0; a < numAcceptors; ++a )
+            if ( holder[ a ] != UNMATCHED )
+                partner[ holder[ a ] ] = a;
+        
+        return partner;
+    }
+    
+    private static long pack( int rank, int proposer )
+    { return ( (long) rank << 32 ) | ( proposer & 0xFFFFFFFFL ); }
+    
+    private static int rank( long proposal )
+    { return (int) ( proposal >>> 32 ); }
+    
+    private static int proposer( long proposal )
+    { return (int) proposal; }
+}
+
+/**
+ * Minimum cost assignment with Bertsekas' auction algorithm. Person i can be
+ * assigned to the objects cols[ rowStart[ i ] ] to cols[ rowStart[ i + 1 ] - 1 ]
+ * with the matching costs. The costs are scaled by n + 1, so once epsilon
+ * reaches 1 the assignment is optimal, and epsilon is scaled down from the
+ * largest cost to 1, keeping the prices between phases.
+ * In each round all the unassigned persons find their bids in parallel, and
+ * then every object is given to its highest bidder. A perfect assignment must
+ * exist, otherwise the bidding never ends.
+ */
+class Auction
+{
+    private static final int UNASSIGNED = -1;
+    // How much epsilon is divided by between phases
+    private static final int EPSILON_FACTOR = 5;
+    // Rounds with fewer bidders are not worth splitting between threads
+    private static final int PARALLEL_THRESHOLD = 64;
+    
+    private int n;
+    private int [ ] rowStart;
+    private int [ ] cols;
+    // The scaled benefit of each assignment, which is minus its scaled cost
+    private long [ ] benefit;
+    // What a single choice bids over its price
+    private long singleBid;
+    
+    private long [ ] price;
+    private int [ ] owner;
+    private int [ ] assigned;
+    
+    // The object each unassigned person bids for in the current round, and how much
+    private int [ ] bidObject;
+    private long [ ] bid;
+    // The best bidder for each object, valid if the object got a bid in the current round
+    private int [ ] bestBidder;
+    private int [ ] bidRound;
+    private int round;
+    
+    public Auction( int n, int [ ] rowStart, int [ ] cols, int [ ] cost )
+    {
+        this.n = n;
+        this.rowStart = rowStart;
+        this.cols = cols;
+        
+        long maxCost = 1;
+        benefit = new long[ cost.length ];
+        for ( int e = 0; e < cost.length; ++e )
+        {
+            benefit[ e ] = -(long) cost[ e ] * ( n + 1 );
+            maxCost = Math.max( maxCost, cost[ e ] );
+        }
+        singleBid = ( maxCost + 1 ) * ( n + 1 );
+        
+        price = new long[ n ];
+        owner = new int[ n ];
+        assigned = new int[ n ];
+        bidObject = new int[ n ];
+        bid = new long[ n ];
+        bestBidder = new int[ n ];
+        bidRound = new int[ n ];
+    }
+    
+    /**
+     * @return The object assigned to each person, with the lowest total cost
+     */
+    public int [ ] solve()
+    {
+        long epsilon = Math.max( 1, singleBid / 2 );
+        while ( true )
+        {
+            runPhase( epsilon );
+            if ( epsilon == 1 )
+                break;
+            
+            epsilon = Math.max( 1, epsilon / EPSILON_FACTOR );
+        }
+        
+        return assigned.clone();
+    }
+    
+    /**
+     * Start from nobody assigned and bid until everybody is
+     * @param epsilon 
+     */
+    private void runPhase( long epsilon )
+    {
+        Arrays.fill( owner, UNASSIGNED );
+        Arrays.fill( assigned, UNASSIGNED );
+        
+        int [ ] bidders = new int[ n ];
+        int [ ] nextBidders = new int[ n ];
+        int [ ] touched = new int[ n ];
+        for ( int i = 0; i < n; ++i )
+            bidders[ i ] = i;
+        int numBidders = n;
+        
+        while ( numBidders > 0 )
+        {
+            ++round;
+            final int [ ] current = bidders;
+            IntStream range = IntStream.range( 0, numBidders );
+            if ( numBidders >= PARALLEL_THRESHOLD )
+                range = range.parallel();
+            range.forEach( k -> findBid( current[ k ], epsilon ) );
+            
+            // The highest bid for each object, ties going to the first bidder
+            int numTouched = 0;
+            for ( int k = 0; k < numBidders; ++k )
+            {
+                int i = bidders[ k ];
+                int j = bidObject[ i ];
+                if ( bidRound[ j ] != round )
+                {
+                    bidRound[ j ] = round;
+                    bestBidder[ j ] = i;
+                    touched[ numTouched++ ] = j;
+                }
+                else if ( bid[ i ] > bid[ bestBidder[ j ] ] )
+                    bestBidder[ j ] = i;
+            }
+            
+            // The losers and the persons that lost their objects bid again
+            int numNext = 0;
+            for ( int k = 0; k < numBidders; ++k )
+            {
+                int i = bidders[ k ];
+                if ( bestBidder[ bidObject[ i ] ] != i )
+                    nextBidders[ numNext++ ] = i;
+            }
+            
+            for ( int t = 0; t < numTouched; ++t )
+            {
+                int j = touched[ t ];
+                int winner = bestBidder[ j ];
+                if ( owner[ j ] != UNASSIGNED )
+                {
+                    assigned[ owner[ j ] ] = UNASSIGNED;
+                    nextBidders[ numNext++ ] = owner[ j ];
+                }
+                
+                owner[ j ] = winner;
+                assigned[ winner ] = j;
+                price[ j ] = bid[ winner ];
+            }
+            
+            int [ ] swap = bidders;
+            bidders = nextBidders;
+            nextBidders = swap;
+            numBidders = numNext;
+        }
+    }
+    
+    /**
+     * Person i bids for its best object by how much better it is than its
+     * second best, plus epsilon
+     * @param i
+     * @param epsilon 
+     */
+    private void findBid( int i, long epsilon )
+    {
+        int best = -1;
+        long bestValue = Long.MIN_VALUE;
+        long secondValue = Long.MIN_VALUE;
+        
+        for ( int e = rowStart[ i ]; e < rowStart[ i + 1 ]; ++e )
+        {
+            long value = benefit[ e ] - price[ cols[ e ] ];
+            if ( value > bestValue )
+            {
+                secondValue = bestValue;
+                bestValue = value;
+                best = cols[ e ];
+            }
+            else if ( value > secondValue )
+                secondValue = value;
+        }
+        
+        bidObject[ i ] = best;
+        bid[ i ] = price[ best ] + epsilon
+                   + ( secondValue == Long.MIN_VALUE ? singleBid : bestValue - secondValue );
+    }
+}
+
+/*
+ * Keeps the matching where everybody is matched with the lowest K up to date
+ * while vertices and rankings are inserted and removed, instead of finding it
+ * again from K = 1. Vertices are numbered from 0 in the order they are added.
+ * Every change only unmatches the pairs it breaks, and those are matched
+ * again with augmenting paths from the unmatched vertices. K is only raised
+ * when one of them can not be matched, and only lowered when a change added
+ * an edge below K or took a vertex out, by unmatching the pairs that need K
+ * and trying to match them again with K - 1.
+ */
+class IncrementalMatching
+{
+    private static final int NONE = -1;
+    
+    private int numVertices;
+    private boolean [ ] inFirstPartition = new boolean[ 0 ];
+    private boolean [ ] present = new boolean[ 0 ];
+    private int size1;
+    private int size2;
+    
+    // The rankings of each vertex, best first, and the K each edge needs, or 0 if the ranking is not mutual
+    private int [ ][ ] pref = new int[ 0 ][ ];
+    private int [ ][ ] edgeK = new int[ 0 ][ ];
+    private int [ ] prefSize = new int[ 0 ];
+    // The vertices that ranked each vertex
+    private int [ ][ ] rankedBy = new int[ 0 ][ ];
+    private int [ ] rankedBySize = new int[ 0 ];
+    // The longest rankings so far, which no edge can need a larger K than
+    private int maxRank;
+    
+    private int [ ] mate = new int[ 0 ];
+    // The K the edge to its mate needs, for the vertices of the first partition
+    private int [ ] mateK = new int[ 0 ];
+    private int K;
+    private boolean feasible;
+    // A change may have made a lower K possible
+    private boolean mayLower;
+    
+    // Vertices of the first partition that may be unmatched
+    private int [ ] pending = new int[ 0 ];
+    private int numPending;
+    private boolean [ ] isPending = new boolean[ 0 ];
+    
+    // Previous ( vertex, mate, mateK ) of every change to the matching while trying a lower K
+    private int [ ] undoLog = new int[ 48 ];
+    private int undoSize;
+    private boolean logging;
+    
+    // For the BFS: the vertex of the first partition each vertex of the second one was reached from
+    private int [ ] queue;
+    private int [ ] parent;
+    private int [ ] reachK;
+    private int [ ] visited = new int[ 0 ];
+    private int epoch;
+    
+    /**
+     * Start with the vertices and rankings of a Graph
+     * @param firstId The ID of the first vertex in prefStart
+     * @param size1
+     * @param size2
+     * @param prefStart Where the rankings of each vertex start in prefList, by ID
+     * @param prefList The IDs of the vertices ranked, best first
+     * @param ranks 
+     */
+    public IncrementalMatching( int firstId, int size1, int size2, 
+                                int [ ] prefStart, int [ ] prefList, RankTable ranks )
+    {
+        allocate( Math.max( 1, size1 + size2 ) );
+        K = 0;
+        
+        for ( int v = 0; v < size1 + size2; ++v )
+            newVertex( v < size1 );
+        
+        for ( int v = 0; v < size1 + size2; ++v )
+        {
+            int from = prefStart[ firstId + v ], to = prefStart[ firstId + v + 1 ];
+            pref[ v ] = new int[ to - from ];
+            edgeK[ v ] = new int[ to - from ];
+            prefSize[ v ] = to - from;
+            maxRank = Math.max( maxRank, to - from );
+            
+            for ( int i = from; i < to; ++i )
+            {
+                int w = prefList[ i ] - firstId;
+                pref[ v ][ i - from ] = w;
+                int rankOfV = ranks.get( w + firstId, v + firstId );
+                edgeK[ v ][ i - from ] = rankOfV == 0 ? 0 : Math.max( i - from + 1, rankOfV );
+                addRankedBy( w, v );
+            }
+        }
+        
+        repair();
+    }
+    
+    /**
+     * @return The lowest K for which everybody is matched, or -1 if nobody can be left out
+     */
+    public int getK()
+    { return feasible ? K : NONE; }
+    
+    /**
+     * @param v
+     * @return The vertex v is matched to, or -1
+     */
+    public int getMate( int v )
+    { return mate[ v ]; }
+    
+    /**
+     * Add a vertex that has not ranked anybody yet
+     * @param firstPartition True if it goes in the first partition
+     * @return The number of the new vertex
+     */
+    public int addVertex( boolean firstPartition )
+    {
+        if ( numVertices == mate.length )
+            allocate( 2 * numVertices );
+        
+        int v = newVertex( firstPartition );
+        repair();
+        
+        return v;
+    }
+    
+    /**
+     * Take out a vertex and every ranking of it, which moves up the vertices
+     * ranked after it
+     * @param v 
+     */
+    public void removeVertex( int v )
+    {
+        checkVertex( v );
+        
+        if ( mate[ v ] != NONE )
+            unmatch( inFirstPartition[ v ] ? v : mate[ v ] );
+        
+        while ( prefSize[ v ] > 0 )
+            removeEntry( v, pref[ v ][ prefSize[ v ] - 1 ] );
+        while ( rankedBySize[ v ] > 0 )
+            removeEntry( rankedBy[ v ][ rankedBySize[ v ] - 1 ], v );
+        
+        present[ v ] = false;
+        if ( inFirstPartition[ v ] )
+            --size1;
+        else
+            --size2;
+        
+        mayLower = true;
+        repair();
+    }
+    
+    /**
+     * Make v rank w with the given rank, moving down the vertices ranked after it.
+     * If v already ranked w, it is moved.
+     * @param v
+     * @param w
+     * @param rank From 1, or past the end of the rankings to add it at the end
+     */
+    public void insertPreference( int v, int w, int rank )
+    {
+        checkVertex( v );
+        checkVertex( w );
+        if ( inFirstPartition[ v ] == inFirstPartition[ w ] )
+            throw new IllegalArgumentException( "Vertices " + v + " and " + w + " are in the same partition." );
+        if ( rank < 1 )
+            throw new IllegalArgumentException( "Ranks start at 1." );
+        
+        removeEntry( v, w );
+        
+        if ( prefSize[ v ] == pref[ v ].length )
+        {
+            pref[ v ] = Arrays.copyOf( pref[ v ], Math.max( 4, 2 * prefSize[ v ] ) );
+            edgeK[ v ] = Arrays.copyOf( edgeK[ v ], pref[ v ].length );
+        }
+        
+        int i = Math.min( rank - 1, prefSize[ v ] );
+        System.arraycopy( pref[ v ], i, pref[ v ], i + 1, prefSize[ v ] - i );
+        System.arraycopy( edgeK[ v ], i, edgeK[ v ], i + 1, prefSize[ v ] - i );
+        pref[ v ][ i ] = w;
+        edgeK[ v ][ i ] = 0;
+        ++prefSize[ v ];
+        maxRank = Math.max( maxRank, prefSize[ v ] );
+        
+        addRankedBy( w, v );
+        refresh( v, i );
+        repair();
+    }
+    
+    /**
+     * Make v not rank w anymore, which moves up the vertices ranked after it
+     * @param v
+     * @param w 
+     */
+    public void removePreference( int v, int w )
+    {
+        checkVertex( v );
+        removeEntry( v, w );
+        repair();
+    }
+    
+    /**
+     * Match the unmatched vertices again, raising K if they can not be matched
+     * with it, and then try lower values of K if a change may allow them
+     */
+    private void repair()
+    {
+        boolean wasFeasible = feasible;
+        feasible = false;
+        
+        // Nobody can be left out only if both partitions have the same size
+        if ( size1 != size2 )
+            return;
+        
+        while ( !augmentPending( K ) )
+        {
+            if ( K >= maxRank )
+                return;
+            
+            ++K;
+        }
+        feasible = true;
+        
+        // K was raised without being the lowest, or it was skipped while the partitions differed
+        if ( !wasFeasible )
+            mayLower = true;
+        
+        while ( mayLower && K > 0 && tryLower() )
+            --K;
+        mayLower = false;
+    }
+    
+    /**
+     * Unmatch the pairs whose edge needs K and try to match everybody with K - 1.
+     * If that fails, the matching is put back as it was.
+     * @return True if everybody is matched with K - 1
+     */
+    private boolean tryLower()
+    {
+        undoSize = 0;
+        logging = true;
+        
+        for ( int v = 0; v < numVertices; ++v )
+            if ( present[ v ] && inFirstPartition[ v ] && mate[ v ] != NONE && mateK[ v ] == K )
+                unmatch( v );
+        
+        boolean lowered = augmentPending( K - 1 );
+        logging = false;
+        
+        if ( !lowered )
+        {
+            for ( int i = undoSize - 3; i >= 0; i -= 3 )
+            {
+                mate[ undoLog[ i ] ] = undoLog[ i + 1 ];
+                mateK[ undoLog[ i ] ] = undoLog[ i + 2 ];
+            }
+            
+            // Everybody was matched before trying
+            while ( numPending > 0 )
+                isPending[ pending[ --numPending ] ] = false;
+        }
+        
+        return lowered;
+    }
+    
+    /**
+     * Find an augmenting path from every unmatched vertex of the first partition
+     * @param limit The largest K the edges may need
+     * @return False if one of them can not be matched, which means there is
+     * no matching where everybody is matched with limit
+     */
+    private boolean augmentPending( int limit )
+    {
+        while ( numPending > 0 )
+        {
+            int u = pending[ numPending - 1 ];
+            if ( present[ u ] && mate[ u ] == NONE && !augment( u, limit ) )
+                return false;
+            
+            isPending[ u ] = false;
+            --numPending;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * BFS through alternating paths from u until an unmatched vertex of the
+     * second partition is found, and flip the matching along the path
+     * @param u
+     * @param limit The largest K the edges may need
+     * @return True if u was matched
+     */
+    private boolean augment( int u, int limit )
+    {
+        // When the stamps are about to overflow, they are reset
+        if ( epoch == Integer.MAX_VALUE )
+        {
+            Arrays.fill( visited, 0 );
+            epoch = 0;
+        }
+        ++epoch;
+        int front = 0, back = 0;
+        queue[ back++ ] = u;
+        
+        while ( front < back )
+        {
+            int x = queue[ front++ ];
+            for ( int i = 0; i < prefSize[ x ]; ++i )
+            {
+                int y = pref[ x ][ i ];
+                int k = edgeK[ x ][ i ];
+                if ( k == 0 || k > limit || visited[ y ] == epoch )
+                    continue;
+                
+                visited[ y ] = epoch;
+                parent[ y ] = x;
+                reachK[ y ] = k;
+                
+                if ( mate[ y ] != NONE )
+                {
+                    queue[ back++ ] = mate[ y ];
+                    continue;
+                }
+                
+                // Flip the matching along the path back to u
+                while ( y != NONE )
+                {
+                    int p = parent[ y ];
+                    int next = mate[ p ];
+                    match( p, y, reachK[ y ] );
+                    y = next;
+                }
+                
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Take w out of the rankings of v
+     * @param v
+     * @param w 
+     */
+    private void removeEntry( int v, int w )
+    {
+        int i = indexOf( v, w );
+        if ( i == -1 )
+            return;
+        
+        setEdgeK( v, i, 0 );
+        int j = indexOf( w, v );
+        if ( j != -1 )
+            setEdgeK( w, j, 0 );
+        
+        --prefSize[ v ];
+        System.arraycopy( pref[ v ], i + 1, pref[ v ], i, prefSize[ v ] - i );
+        System.arraycopy( edgeK[ v ], i + 1, edgeK[ v ], i, prefSize[ v ] - i );
+        
+        for ( int k = 0; k < rankedBySize[ w ]; ++k )
+            if ( rankedBy[ w ][ k ] == v )
+            {
+                rankedBy[ w ][ k ] = rankedBy[ w ][ --rankedBySize[ w ] ];
+                break;
+            }
+        
+        refresh( v, i );
+    }
+    
+    /**
+     * Find again the K needed by the edges of v, after its rankings moved
+     * @param v 
+     * @param from The first ranking that moved
+     */
+    private void refresh( int v, int from )
+    {
+        for ( int i = from; i < prefSize[ v ]; ++i )
+        {
+            int w = pref[ v ][ i ];
+            int j = indexOf( w, v );
+            int k = j == -1 ? 0 : Math.max( i, j ) + 1;
+            
+            setEdgeK( v, i, k );
+            if ( j != -1 )
+                setEdgeK( w, j, k );
+        }
+    }
+    
+    /**
+     * Change the K needed by the edge of the i-th ranking of v, breaking its
+     * pair if the edge can not be used with the current K anymore
+     * @param v
+     * @param i
+     * @param k 
+     */
+    private void setEdgeK( int v, int i, int k )
+    {
+        int old = edgeK[ v ][ i ];
+        if ( old == k )
+            return;
+        
+        edgeK[ v ][ i ] = k;
+        
+        // The edge can now be used with a lower K than it could before
+        if ( k != 0 && k < K && ( old == 0 || old >= K ) )
+            mayLower = true;
+        
+        int w = pref[ v ][ i ];
+        int u = inFirstPartition[ v ] ? v : w;
+        if ( mate[ v ] == w )
+        {
+            if ( k == 0 || k > K )
+                unmatch( u );
+            else
+                mateK[ u ] = k;
+        }
+    }
+    
+    /**
+     * @param v
+     * @param w
+     * @return Where v ranked w in its rankings, or -1
+     */
+    private int indexOf( int v, int w )
+    {
+        for ( int i = 0; i < prefSize[ v ]; ++i )
+            if ( pref[ v ][ i ] == w )
+                return i;
+        
+        return -1;
+    }
+    
+    private void match( int u, int w, int k )
+    {
+        log( u );
+        log( w );
+        mate[ u ] = w;
+        mate[ w ] = u;
+        mateK[ u ] = k;
+    }
+    
+    /**
+     * Break the pair of u, a vertex of the first partition, which is matched again later
+     * @param u 
+     */
+    private void unmatch( int u )
+    {
+        int w = mate[ u ];
+        log( u );
+        log( w );
+        mate[ u ] = NONE;
+        mate[ w ] = NONE;
+        addPending( u );
+    }
+    
+    private void log( int v )
+    {
+        if ( !logging )
+            return;
+        
+        if ( undoSize + 3 > undoLog.length )
+            undoLog = Arrays.copyOf( undoLog, 2 * undoLog.length );
+        
+        undoLog[ undoSize++ ] = v;
+        undoLog[ undoSize++ ] = mate[ v ];
+        undoLog[ undoSize++ ] = mateK[ v ];
+    }
+    
+    private void addPending( int u )
+    {
+        if ( !isPending[ u ] )
+        {
+            isPending[ u ] = true;
+            pending[ numPending++ ] = u;
+        }
+    }
+    
+    private void addRankedBy( int w, int v )
+    {
+        if ( rankedBySize[ w ] == rankedBy[ w ].length )
+            rankedBy[ w ] = Arrays.copyOf( rankedBy[ w ], Math.max( 4, 2 * rankedBySize[ w ] ) );
+        
+        rankedBy[ w ][ rankedBySize[ w ]++ ] = v;
+    }
+    
+    private int newVertex( boolean firstPartition )
+    {
+        int v = numVertices++;
+        inFirstPartition[ v ] = firstPartition;
+        present[ v ] = true;
+        pref[ v ] = new int[ 0 ];
+        edgeK[ v ] = new int[ 0 ];
+        rankedBy[ v ] = new int[ 0 ];
+        mate[ v ] = NONE;
+        
+        if ( firstPartition )
+        {
+            ++size1;
+            addPending( v );
+        }
+        else
+            ++size2;
+        
+        return v;
+    }
+    
+    private void checkVertex( int v )
+    {
+        if ( v < 0 || v >= numVertices || !present[ v ] )
+            throw new IllegalArgumentException( "There is no vertex " + v + "." );
+    }
+    
+    /**
+     * Make room for the given number of vertices
+     * @param capacity 
+     */
+    private void allocate( int capacity )
+    {
+        inFirstPartition = Arrays.copyOf( inFirstPartition, capacity );
+        present = Arrays.copyOf( present, capacity );
+        pref = Arrays.copyOf( pref, capacity );
+        edgeK = Arrays.copyOf( edgeK, capacity );
+        prefSize = Arrays.copyOf( prefSize, capacity );
+        rankedBy = Arrays.copyOf( rankedBy, capacity );
+        rankedBySize = Arrays.copyOf( rankedBySize, capacity );
+        mate = Arrays.copyOf( mate, capacity );
+        mateK = Arrays.copyOf( mateK, capacity );
+        pending = Arrays.copyOf( pending, capacity );
+        isPending = Arrays.copyOf( isPending, capacity );
+        queue = new int[ capacity ];
+        parent = new int[ capacity ];
+        reachK = new int[ capacity ];
+        visited = Arrays.copyOf( visited, capacity );
+    }
+}
+
+public class BipartiteMatching
+{
+    /**
+     * Run the other engines on the same graph, which all match every vertex once
+     * @param graph 
+     */
+    private static void compareEngines( Graph graph )
+    {
+        long start = System.currentTimeMillis();
+        int K = graph.findMatchingHopcroftKarp();
+        long end = System.currentTimeMillis();
+        
+        System.out.println( "Hopcroft-Karp: everybody was matched with their top " + K 
+                            + " preferences (" + ( end - start ) + " ms.)" );
+        
+        start = System.currentTimeMillis();
+        K = graph.findMatchingBinarySearch();
+        end = System.currentTimeMillis();
+        
+        System.out.println( "Binary search: everybody was matched with their top " + K 
+                            + " preferences (" + ( end - start ) + " ms.)" );
+        
+        start = System.currentTimeMillis();
+        K = graph.findMatchingPushRelabel();
+        end = System.currentTimeMillis();
+        
+        System.out.println( "Push-relabel: everybody was matched with their top " + K 
+                            + " preferences (" + ( end - start ) + " ms.)" );
+        
+        start = System.currentTimeMillis();
+        int worst = graph.findStableMatching( false );
+        end = System.currentTimeMillis();
+        
+        System.out.println( "Stable matching: the worst rank in a pair is " + worst 
+                            + ", with " + graph.unmatched() + " unmatched (" + ( end - start ) + " ms.)" );
+        
+        start = System.currentTimeMillis();
+        worst = graph.findStableMatching( true );
+        end = System.currentTimeMillis();
+        
+        System.out.println( "Parallel stable matching: the worst rank in a pair is " + worst 
+                            + ", with " + graph.unmatched() + " unmatched (" + ( end - start ) + " ms.)" );
+        
+        start = System.currentTimeMillis();
+        K = graph.findMatchingIncremental();
+        end = System.currentTimeMillis();
+        
+        System.out.println( "Incremental repair: everybody was matched with their top " + K 
+                            + " preferences (" + ( end - start ) + " ms.)" );
+        
+        start = System.currentTimeMillis();
+        int total = graph.findMinimumRankMatching();
+        end = System.currentTimeMillis();
+        
+        System.out.println( "Auction: the lowest total of the ranks in the pairs is " + total 
+                            + " (" + ( end - start ) + " ms.)" );
+    }
+    
+    private static void processFile( String filename )
+    {
+        try
+        {
+            Graph graph = new Graph( filename );
+            
+            System.out.println( "File: " + filename );
             long start = System.currentTimeMillis();
             graph.findMatching();
             long end = System.currentTimeMillis();
             
             System.out.println( "Elapsed time: " + ( end - start ) + " ms." );
+            
+            if ( graph.hasCapacities() )
+                System.out.println( "Some vertices can be matched more than once, which only the"
+                                    + " first engine supports." );
+            else
+                compareEngines( graph );
+            
             System.out.println( );
         } 
         catch ( FileNotFoundException ex )
@@ -9,8 +9,14 @@
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
 
 /**
  * Find the largest submatrix of 1s in a matrix of 0s and 1s
@@ -125,6 +131,888 @@ class LCS
         // Since the LCS is read backwards from the table, the string must be reversed
         return sb.reverse().toString();
     }
+    
+    /**
+     * Same as calcLCS, but with Hirschberg's divide and conquer, which only
+     * keeps rows as long as the shorter string instead of the whole table.
+     * The two halves of every split are solved in parallel.
+     * @param s1
+     * @param s2
+     * @return LCS
+     */
+    public static String calcLCSHirschberg( String s1, String s2 )
+    {
+        // The rows go along the shorter string
+        char [ ] a = ( s1.length() >= s2.length() ? s1 : s2 ).toCharArray();
+        char [ ] b = ( s1.length() >= s2.length() ? s2 : s1 ).toCharArray();
+        
+        return ForkJoinPool.commonPool().invoke( new HirschbergTask( a, 0, a.length, b, 0, b.length ) );
+    }
+    
+    /**
+     * The length of the LCS, found 64 entries of a row at a time
+     * @param s1
+     * @param s2
+     * @return The length of the LCS
+     */
+    public static int lengthBitParallel( String s1, String s2 )
+    {
+        return new BitParallelLCS( s1.length() >= s2.length() ? s2 : s1 )
+                   .length( s1.length() >= s2.length() ? s1 : s2 );
+    }
+    
+    /**
+     * Same as calcLCS, but the table is filled 64 entries of a row at a time,
+     * and only one bit is kept for each entry
+     * @param s1
+     * @param s2
+     * @return LCS
+     */
+    public static String calcLCSBitParallel( String s1, String s2 )
+    {
+        return new BitParallelLCS( s1.length() >= s2.length() ? s2 : s1 )
+                   .calcLCS( s1.length() >= s2.length() ? s1 : s2 );
+    }
+    
+    /**
+     * Same as calcLCS, but the table is filled by tiles, and the tiles in each
+     * anti-diagonal of tiles are filled in parallel
+     * @param s1
+     * @param s2
+     * @return LCS
+     */
+    public static String calcLCSWavefront( String s1, String s2 )
+    {
+        table = new int[ s1.length() + 1 ][ s2.length() + 1 ];
+        new WavefrontLCS( s1, s2 ).fill( table );
+        
+        return readLCS( s1, s2 );
+    }
+    
+    /**
+     * The length of the LCS, filling the table by tiles in parallel but only
+     * keeping the edges of the tiles
+     * @param s1
+     * @param s2
+     * @return The length of the LCS
+     */
+    public static int lengthWavefront( String s1, String s2 )
+    {
+        return new WavefrontLCS( s1, s2 ).length();
+    }
+    
+    /**
+     * An edit script that turns s1 into s2: one char. per step, '=' to keep the
+     * next char. of both strings, '-' to delete the next char. of s1 and '+'
+     * to insert the next char. of s2. It has as few deletions and insertions
+     * as possible, so the kept chars. are an LCS.
+     * Uses Myers' algorithm when the strings are close enough, and the
+     * bit-parallel LCS otherwise.
+     * @param s1
+     * @param s2
+     * @return The edit script
+     */
+    public static String editScript( String s1, String s2 )
+    {
+        MyersDiff diff = new MyersDiff( s1, s2 );
+        
+        if ( diff.distance( MyersDiff.maxDistance( s1, s2 ) ) >= 0 )
+            return diff.editScript();
+        
+        String lcs = calcLCSBitParallel( s1, s2 );
+        StringBuilder script = new StringBuilder();
+        int i = 0, j = 0;
+        
+        // Delete and insert up to the next char. of the LCS in each string
+        for ( int k = 0; k < lcs.length(); ++k )
+        {
+            for ( ; s1.charAt( i ) != lcs.charAt( k ); ++i )
+                script.append( '-' );
+            for ( ; s2.charAt( j ) != lcs.charAt( k ); ++j )
+                script.append( '+' );
+            script.append( '=' );
+            ++i;++j;
+        }
+        for ( ; i < s1.length(); ++i )
+            script.append( '-' );
+        for ( ; j < s2.length(); ++j )
+            script.append( '+' );
+        
+        return script.toString();
+    }
+    
+    /**
+     * Same as calcLCS, but read from the edit script, which is fast when the
+     * strings are nearly the same
+     * @param s1
+     * @param s2
+     * @return LCS
+     */
+    public static String calcLCSMyers( String s1, String s2 )
+    {
+        return commonChars( s1, editScript( s1, s2 ) );
+    }
+    
+    /**
+     * @param s1
+     * @param script An edit script from s1
+     * @return The chars. of s1 kept by the script
+     */
+    public static String commonChars( String s1, String script )
+    {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        
+        for ( int k = 0; k < script.length(); ++k )
+            if ( script.charAt( k ) == '=' )
+                sb.append( s1.charAt( i++ ) );
+            else if ( script.charAt( k ) == '-' )
+                ++i;
+        
+        return sb.toString();
+    }
+}
+
+/*
+ * Fills the LCS table by square tiles. A tile only needs the row above it and
+ * the column to its left, so all the tiles in an anti-diagonal of tiles can
+ * be filled at the same time, once the anti-diagonal before it is done.
+ */
+class WavefrontLCS
+{
+    // Tiles of this side fit in the cache along with the parts of the strings they need
+    private static final int TILE = 512;
+    
+    // The work of the tile in a row and column of tiles
+    private interface Tile
+    {
+        void fill( int r, int c );
+    }
+    
+    private char [ ] a;
+    private char [ ] b;
+    // Number of tiles down and across
+    private int tileRows;
+    private int tileColumns;
+    
+    /*
+     * When only the length is needed: the last row found of each column,
+     * the last column found of each row, and the entry at the top left of the
+     * next tile of each row of tiles, which the tile to its left overwrites
+    */
+    private int [ ] bottom;
+    private int [ ] right;
+    private int [ ] corner;
+    
+    public WavefrontLCS( String s1, String s2 )
+    {
+        a = s1.toCharArray();
+        b = s2.toCharArray();
+        tileRows = ( a.length + TILE - 1 ) / TILE;
+        tileColumns = ( b.length + TILE - 1 ) / TILE;
+    }
+    
+    /**
+     * Fill the whole table, which has a row more than the first string and a
+     * column more than the second one
+     * @param table 
+     */
+    public void fill( int [ ][ ] table )
+    {
+        runWavefront( ( r, c ) -> fillTile( table, r, c ) );
+    }
+    
+    /**
+     * @return The length of the LCS, keeping only one row and one column of the table
+     */
+    public int length()
+    {
+        bottom = new int[ b.length + 1 ];
+        right = new int[ a.length + 1 ];
+        corner = new int[ Math.max( 1, tileRows ) ];
+        
+        runWavefront( this::edgeTile );
+        
+        return bottom[ b.length ];
+    }
+    
+    /**
+     * Run the tiles of every anti-diagonal of tiles in parallel, one anti-diagonal after the other
+     * @param tile 
+     */
+    private void runWavefront( Tile tile )
+    {
+        for ( int d = 0; d < tileRows + tileColumns - 1; ++d )
+        {
+            final int diagonal = d;
+            int first = Math.max( 0, d - tileColumns + 1 );
+            int last = Math.min( d, tileRows - 1 );
+            
+            IntStream rows = IntStream.rangeClosed( first, last );
+            if ( last > first )
+                rows = rows.parallel();
+            rows.forEach( r -> tile.fill( r, diagonal - r ) );
+        }
+    }
+    
+    /**
+     * Fill a tile of the table, the same way LCS.calcLCS fills the whole table
+     */
+    private void fillTile( int [ ][ ] table, int r, int c )
+    {
+        int rowEnd = Math.min( a.length, ( r + 1 ) * TILE );
+        int columnEnd = Math.min( b.length, ( c + 1 ) * TILE );
+        
+        for ( int i = r * TILE + 1; i <= rowEnd; ++i )
+            for ( int j = c * TILE + 1; j <= columnEnd; ++j )
+                if ( a[ i - 1 ] == b[ j - 1 ] )
+                    table[ i ][ j ] = 1 + table[ i - 1 ][ j - 1 ];
+                else
+                    table[ i ][ j ] = Math.max( table[ i ][ j - 1 ], table[ i - 1 ][ j ] );
+    }
+    
+    /**
+     * Fill a tile in one row, starting from the last row of the tile above it
+     * and the last column of the tile to its left, which are replaced by its
+     * own last row and column
+     */
+    private void edgeTile( int r, int c )
+    {
+        int rowStart = r * TILE, rowEnd = Math.min( a.length, rowStart + TILE );
+        int columnStart = c * TILE, columnEnd = Math.min( b.length, columnStart + TILE );
+        int width = columnEnd - columnStart;
+        
+        int [ ] row = new int[ width + 1 ];
+        row[ 0 ] = c == 0 ? 0 : corner[ r ];
+        System.arraycopy( bottom, columnStart + 1, row, 1, width );
+        // The top left entry of the next tile of this row of tiles
+        corner[ r ] = bottom[ columnEnd ];
+        
+        for ( int i = rowStart + 1; i <= rowEnd; ++i )
+        {
+            int diagonal = row[ 0 ];
+            row[ 0 ] = c == 0 ? 0 : right[ i ];
+            for ( int j = 1; j <= width; ++j )
+            {
+                int top = row[ j ];
+                if ( a[ i - 1 ] == b[ columnStart + j - 1 ] )
+                    row[ j ] = diagonal + 1;
+                else
+                    row[ j ] = Math.max( top, row[ j - 1 ] );
+                diagonal = top;
+            }
+            
+            right[ i ] = row[ width ];
+        }
+        
+        System.arraycopy( row, 1, bottom, columnStart + 1, width );
+    }
+}
+
+/*
+ * Myers' O((n+m)D) diff, where D is the number of deletions and insertions.
+ * The path of diagonal k = x - y that gets furthest with d edits comes from
+ * the furthest path of diagonal k - 1 or k + 1 with d - 1 edits, followed by
+ * as many equal chars. as possible. The edit script is found in linear space
+ * by searching from both ends at once until the paths meet (the middle snake),
+ * then solving both sides of it.
+ */
+class MyersDiff
+{
+    private char [ ] a;
+    private char [ ] b;
+    private StringBuilder script;
+    
+    public MyersDiff( String s1, String s2 )
+    {
+        a = s1.toCharArray();
+        b = s2.toCharArray();
+    }
+    
+    /**
+     * The most edits for which Myers' algorithm is still faster than the
+     * bit-parallel LCS, which does about n*m/64 steps
+     * @param s1
+     * @param s2
+     * @return 
+     */
+    public static int maxDistance( String s1, String s2 )
+    {
+        return Math.max( 64, Math.min( s1.length(), s2.length() ) / 32 );
+    }
+    
+    /**
+     * The fewest deletions and insertions to turn the first string into the second one
+     * @param limit Stop looking after this many edits
+     * @return The number of edits, or -1 if it is more than the limit
+     */
+    public int distance( int limit )
+    {
+        int n = a.length, m = b.length;
+        int max = Math.min( limit, n + m );
+        // Furthest x in each diagonal k, stored at k + max + 1
+        int [ ] v = new int[ 2 * max + 3 ];
+        
+        for ( int d = 0; d <= max; ++d )
+            for ( int k = -d; k <= d; k += 2 )
+            {
+                int x;
+                if ( k == -d || ( k != d && v[ k + max ] < v[ k + max + 2 ] ) )
+                    x = v[ k + max + 2 ];
+                else
+                    x = v[ k + max ] + 1;
+                int y = x - k;
+                
+                while ( x < n && y < m && a[ x ] == b[ y ] )
+                {
+                    ++x;++y;
+                }
+                v[ k + max + 1 ] = x;
+                
+                if ( x >= n && y >= m )
+                    return d;
+            }
+        
+        return -1;
+    }
+    
+    /**
+     * @return The shortest edit script, in the format of LCS.editScript
+     */
+    public String editScript()
+    {
+        script = new StringBuilder();
+        diff( 0, a.length, 0, b.length );
+        
+        return script.toString();
+    }
+    
+    /*
+     * Append the edit script between a[ aFrom, aTo ) and b[ bFrom, bTo )
+    */
+    private void diff( int aFrom, int aTo, int bFrom, int bTo )
+    {
+        // Keep the common start, and put aside the common end
+        for ( ; aFrom < aTo && bFrom < bTo && a[ aFrom ] == b[ bFrom ]; ++aFrom, ++bFrom )
+            script.append( '=' );
+        int suffix = 0;
+        while ( aTo - suffix > aFrom && bTo - suffix > bFrom 
+                && a[ aTo - suffix - 1 ] == b[ bTo - suffix - 1 ] )
+            ++suffix;
+        aTo -= suffix;
+        bTo -= suffix;
+        
+        int [ ] middle = aFrom < aTo && bFrom < bTo ? middleSnake( aFrom, aTo, bFrom, bTo ) : null;
+        
+        if ( middle == null )
+        {
+            // Nothing in common
+            for ( int i = aFrom; i < aTo; ++i )
+                script.append( '-' );
+            for ( int j = bFrom; j < bTo; ++j )
+                script.append( '+' );
+        }
+        else
+        {
+            diff( aFrom, aFrom + middle[ 0 ], bFrom, bFrom + middle[ 1 ] );
+            diff( aFrom + middle[ 0 ], aTo, bFrom + middle[ 1 ], bTo );
+        }
+        
+        for ( int i = 0; i < suffix; ++i )
+            script.append( '=' );
+    }
+    
+    /*
+     * Search from the start and from the end of a[ aFrom, aTo ) and 
+     * b[ bFrom, bTo ) at the same time, with one more edit each time, until the
+     * paths overlap. The strings must not start or end with the same char.
+     * Returns where the forward path ends, relative to the start of the strings,
+     * or null if they have nothing in common.
+    */
+    private int [ ] middleSnake( int aFrom, int aTo, int bFrom, int bTo )
+    {
+        int n = aTo - aFrom, m = bTo - bFrom;
+        int max = ( n + m + 1 ) / 2;
+        int delta = n - m;
+        boolean odd = ( delta & 1 ) != 0;
+        
+        // Furthest x in each diagonal k, stored at k + max, from the start and from the end
+        int [ ] forward = new int[ 2 * max + 2 ];
+        int [ ] backward = new int[ 2 * max + 2 ];
+        Arrays.fill( forward, -1 );
+        Arrays.fill( backward, -1 );
+        forward[ max + 1 ] = 0;
+        backward[ max + 1 ] = 0;
+        
+        // Diagonals whose paths went past the end of a string are skipped
+        int forwardStart = 0, forwardEnd = 0, backwardStart = 0, backwardEnd = 0;
+        
+        for ( int d = 0; d < max; ++d )
+        {
+            for ( int k = -d + forwardStart; k <= d - forwardEnd; k += 2 )
+            {
+                int x;
+                if ( k == -d || ( k != d && forward[ k + max - 1 ] < forward[ k + max + 1 ] ) )
+                    x = forward[ k + max + 1 ];
+                else
+                    x = forward[ k + max - 1 ] + 1;
+                int y = x - k;
+                
+                while ( x < n && y < m && a[ aFrom + x ] == b[ bFrom + y ] )
+                {
+                    ++x;++y;
+                }
+                forward[ k + max ] = x;
+                
+                if ( x > n )
+                    forwardEnd += 2;
+                else if ( y > m )
+                    forwardStart += 2;
+                else if ( odd )
+                {
+                    int other = max + delta - k;
+                    if ( other >= 0 && other < forward.length && backward[ other ] != -1 
+                         && x >= n - backward[ other ] )
+                        return new int[ ] { x, y };
+                }
+            }
+            
+            for ( int k = -d + backwardStart; k <= d - backwardEnd; k += 2 )
+            {
+                int x;
+                if ( k == -d || ( k != d && backward[ k + max - 1 ] < backward[ k + max + 1 ] ) )
+                    x = backward[ k + max + 1 ];
+                else
+                    x = backward[ k + max - 1 ] + 1;
+                int y = x - k;
+                
+                while ( x < n && y < m && a[ aTo - x - 1 ] == b[ bTo - y - 1 ] )
+                {
+                    ++x;++y;
+                }
+                backward[ k + max ] = x;
+                
+                if ( x > n )
+                    backwardEnd += 2;
+                else if ( y > m )
+                    backwardStart += 2;
+                else if ( !odd )
+                {
+                    int other = max + delta - k;
+                    if ( other >= 0 && other < forward.length && forward[ other ] != -1 )
+                    {
+                        int forwardX = forward[ other ];
+                        if ( forwardX >= n - x )
+                            return new int[ ] { forwardX, forwardX - ( other - max ) };
+                    }
+                }
+            }
+        }
+        
+        return null;
+    }
+}
+
+/*
+ * Bit-parallel LCS (Allison-Dix, Hyyro) against a fixed pattern, whose
+ * characters are the columns of the table. Each row of the table is kept as
+ * bits, where bit j is 0 if the entry in column j + 1 is one more than the one
+ * to its left, so the LCS length is the number of 0s in the last row. A whole
+ * row is found from the previous one with a few operations per 64 columns,
+ * using the columns where each character appears in the pattern (its mask).
+ */
+class BitParallelLCS
+{
+    private String pattern;
+    private int words;
+    // The position in 'masks' of every character up to the largest one in the
+    // pattern, or 0 if the character is not in the pattern
+    private int [ ] symbolOf;
+    // The mask of every distinct character in the pattern. The mask at 0 is
+    // the one of the characters not in the pattern, which has no bits set.
+    private long [ ][ ] masks;
+    
+    public BitParallelLCS( String pattern )
+    {
+        this.pattern = pattern;
+        words = Math.max( 1, ( pattern.length() + 63 ) / 64 );
+        
+        char largest = 0;
+        for ( int j = 0; j < pattern.length(); ++j )
+            largest = (char) Math.max( largest, pattern.charAt( j ) );
+        symbolOf = new int[ largest + 1 ];
+        
+        int symbols = 1;
+        for ( int j = 0; j < pattern.length(); ++j )
+            if ( symbolOf[ pattern.charAt( j ) ] == 0 )
+                symbolOf[ pattern.charAt( j ) ] = symbols++;
+        
+        masks = new long[ symbols ][ words ];
+        for ( int j = 0; j < pattern.length(); ++j )
+            masks[ symbolOf[ pattern.charAt( j ) ] ][ j >> 6 ] |= 1L << j;
+    }
+    
+    /**
+     * @param text
+     * @return The length of the LCS of the text and the pattern
+     */
+    public int length( String text )
+    {
+        return length( text, newRow() );
+    }
+    
+    /**
+     * Same as length( text ), without allocating anything
+     * @param text
+     * @param row Where the rows are found, from newRow()
+     * @return The length of the LCS of the text and the pattern
+     */
+    public int length( String text, long [ ] row )
+    {
+        Arrays.fill( row, -1L );
+        for ( int i = 0; i < text.length(); ++i )
+            nextRow( row, row, text.charAt( i ) );
+        
+        return zeros( row );
+    }
+    
+    /**
+     * Keep every row, and read the LCS from them going back from the last
+     * entry: a match is always part of an LCS, otherwise the LCS comes from the
+     * left if the bit of the entry is 1, or from the top if it is 0
+     * @param text
+     * @return LCS of the text and the pattern
+     */
+    public String calcLCS( String text )
+    {
+        long [ ][ ] rows = new long[ text.length() + 1 ][ ];
+        rows[ 0 ] = firstRow();
+        for ( int i = 1; i <= text.length(); ++i )
+        {
+            // Rows without a match are the same as the previous one, so they are shared
+            char c = text.charAt( i - 1 );
+            if ( symbol( c ) != 0 )
+                nextRow( rows[ i - 1 ], rows[ i ] = new long[ words ], c );
+            else
+                rows[ i ] = rows[ i - 1 ];
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        int i = text.length();
+        int j = pattern.length();
+        
+        while ( i > 0 && j > 0 )
+        {
+            if ( text.charAt( i - 1 ) == pattern.charAt( j - 1 ) )
+            {
+                sb.append( text.charAt( i - 1 ) );
+                --i;--j;
+            }
+            else if ( ( rows[ i ][ ( j - 1 ) >> 6 ] & ( 1L << ( j - 1 ) ) ) != 0 )
+                --j;
+            else
+                --i;
+        }
+        
+        // Since the LCS is read backwards, the string must be reversed
+        return sb.reverse().toString();
+    }
+    
+    /**
+     * @return An array long enough for a row
+     */
+    public long [ ] newRow()
+    {
+        return new long[ words ];
+    }
+    
+    /**
+     * @return The row of the empty text, where no entry is larger than the one to its left
+     */
+    private long [ ] firstRow()
+    {
+        long [ ] row = new long[ words ];
+        Arrays.fill( row, -1L );
+        return row;
+    }
+    
+    /**
+     * Find the row after 'previous' for the character c: 
+     * row = ( previous + U ) | ( previous - U ), where U = previous & mask( c ),
+     * with the carry of the addition going from each word to the next one
+     * @param previous
+     * @param row Where the row is stored, which may be 'previous'
+     * @param c 
+     */
+    private void nextRow( long [ ] previous, long [ ] row, char c )
+    {
+        long [ ] mask = masks[ symbol( c ) ];
+        long carry = 0;
+        
+        for ( int w = 0; w < words; ++w )
+        {
+            long v = previous[ w ];
+            long u = v & mask[ w ];
+            long sum = v + u + carry;
+            carry = ( ( v & u ) | ( ( v | u ) & ~sum ) ) >>> 63;
+            // Since U is a subset of V, V - U has no borrow
+            row[ w ] = sum | ( v & ~u );
+        }
+    }
+    
+    /**
+     * @param c
+     * @return The position of the mask of c in 'masks'
+     */
+    private int symbol( char c )
+    {
+        return c < symbolOf.length ? symbolOf[ c ] : 0;
+    }
+    
+    /**
+     * @param row
+     * @return The number of 0s in the row, which is the LCS length. The bits
+     * past the end of the pattern are always 1.
+     */
+    private int zeros( long [ ] row )
+    {
+        int ones = 0;
+        for ( long word : row )
+            ones += Long.bitCount( word );
+        
+        return 64 * words - ones;
+    }
+}
+
+/*
+ * Scores many candidate strings against the same query by the length of their
+ * LCS with it. The masks of the query are found once, and each task reuses
+ * the same row for all the candidates it scores, so scoring a candidate
+ * allocates nothing. Only the candidates that enter the top k are stored.
+ */
+class LCSBatch
+{
+    // Candidates read from the file before they are scored in parallel
+    private static final int CHUNK = 4096;
+    // Candidates scored by each parallel task, with one row
+    private static final int TASK = 256;
+    
+    private BitParallelLCS query;
+    
+    public LCSBatch( String query )
+    {
+        this.query = new BitParallelLCS( query );
+    }
+    
+    /**
+     * @param candidate
+     * @return The length of the LCS of the candidate and the query
+     */
+    public int score( String candidate )
+    {
+        return query.length( candidate );
+    }
+    
+    /**
+     * Read the candidates, one per line, in chunks, scoring each chunk in
+     * parallel, and keep the best ones in a heap whose top is the worst of them
+     * @param filename
+     * @param k How many candidates to return
+     * @return The k candidates with the longest LCS, best first. Ties go to the
+     * earlier line. Empty if k is not positive.
+     * @throws FileNotFoundException 
+     */
+    public List<ScoredCandidate> topK( String filename, int k ) throws FileNotFoundException
+    {
+        if ( k <= 0 )
+            return new ArrayList<>();
+        
+        Comparator<ScoredCandidate> better = Comparator.comparingInt( ( ScoredCandidate c ) -> c.length )
+                                                       .thenComparingInt( c -> -c.line );
+        PriorityQueue<ScoredCandidate> best = new PriorityQueue<>( better );
+        
+        List<String> chunk = new ArrayList<>( CHUNK );
+        int [ ] scores = new int[ CHUNK ];
+        int line = 0;
+        
+        try ( Scanner scanner = new Scanner( new File( filename ) ) )
+        {
+            while ( scanner.hasNextLine() || !chunk.isEmpty() )
+            {
+                if ( scanner.hasNextLine() && chunk.size() < CHUNK )
+                {
+                    chunk.add( scanner.nextLine().trim() );
+                    continue;
+                }
+                
+                IntStream.range( 0, ( chunk.size() + TASK - 1 ) / TASK ).parallel().forEach( t -> 
+                {
+                    long [ ] row = query.newRow();
+                    for ( int i = t * TASK; i < Math.min( chunk.size(), ( t + 1 ) * TASK ); ++i )
+                        scores[ i ] = query.length( chunk.get( i ), row );
+                } );
+                
+                for ( int i = 0; i < chunk.size(); ++i, ++line )
+                    if ( best.size() < k || scores[ i ] > best.peek().length )
+                    {
+                        best.add( new ScoredCandidate( line, chunk.get( i ), scores[ i ] ) );
+                        if ( best.size() > k )
+                            best.poll();
+                    }
+                chunk.clear();
+            }
+        }
+        
+        List<ScoredCandidate> result = new ArrayList<>( best );
+        result.sort( better.reversed() );
+        
+        return result;
+    }
+}
+
+class ScoredCandidate
+{
+    // Line of the candidate in the file, from 0
+    public final int line;
+    public final String text;
+    // Length of its LCS with the query
+    public final int length;
+    
+    public ScoredCandidate( int line, String text, int length )
+    {
+        this.line = line;
+        this.text = text;
+        this.length = length;
+    }
+}
+
+/*
+ * Finds the LCS of a[ lo1...hi1 - 1 ] and b[ lo2...hi2 - 1 ]. The LCS lengths
+ * of the first half of a with every prefix of b, and of the second half of a
+ * with every suffix of b, give the point where the LCS crosses the middle row
+ * of the table, and both sides of it are solved the same way.
+ */
+class HirschbergTask extends RecursiveTask<String>
+{
+    private static final long serialVersionUID = 1L;
+    
+    // Parts with fewer entries than this are solved with the full table
+    private static final int TABLE_AREA = 1 << 12;
+    // Parts with fewer entries than this solve both halves in the same thread
+    private static final long PARALLEL_AREA = 1L << 22;
+    
+    private char [ ] a;
+    private int lo1;
+    private int hi1;
+    private char [ ] b;
+    private int lo2;
+    private int hi2;
+    
+    public HirschbergTask( char [ ] a, int lo1, int hi1, char [ ] b, int lo2, int hi2 )
+    {
+        this.a = a;
+        this.lo1 = lo1;
+        this.hi1 = hi1;
+        this.b = b;
+        this.lo2 = lo2;
+        this.hi2 = hi2;
+    }
+    
+    @Override
+    protected String compute()
+    {
+        long area = (long) ( hi1 - lo1 ) * ( hi2 - lo2 );
+        if ( area == 0 )
+            return "";
+        if ( area <= TABLE_AREA || hi1 - lo1 == 1 )
+            return solveWithTable();
+        
+        int mid = ( lo1 + hi1 ) / 2;
+        int [ ] forward = lastRow( lo1, mid, false );
+        int [ ] backward = lastRow( mid, hi1, true );
+        
+        // The LCS goes through the column where both halves add up to the most
+        int split = 0, best = -1;
+        for ( int k = 0; k <= hi2 - lo2; ++k )
+            if ( forward[ k ] + backward[ hi2 - lo2 - k ] > best )
+            {
+                best = forward[ k ] + backward[ hi2 - lo2 - k ];
+                split = k;
+            }
+        
+        HirschbergTask left = new HirschbergTask( a, lo1, mid, b, lo2, lo2 + split );
+        HirschbergTask right = new HirschbergTask( a, mid, hi1, b, lo2 + split, hi2 );
+        if ( area < PARALLEL_AREA )
+            return left.compute() + right.compute();
+        
+        left.fork();
+        String rightLCS = right.compute();
+        return left.join() + rightLCS;
+    }
+    
+    /**
+     * The last row of the LCS table of a[ from...to - 1 ] and b[ lo2...hi2 - 1 ],
+     * using a single row
+     * @param from
+     * @param to
+     * @param reversed If true, both strings are read backwards, so entry k is
+     * the LCS length with the last k characters of b
+     * @return The row
+     */
+    private int [ ] lastRow( int from, int to, boolean reversed )
+    {
+        int length = hi2 - lo2;
+        int [ ] row = new int[ length + 1 ];
+        
+        for ( int i = 0; i < to - from; ++i )
+        {
+            char c = reversed ? a[ to - 1 - i ] : a[ from + i ];
+            // The entry of the previous row to the top left
+            int diagonal = 0;
+            for ( int j = 1; j <= length; ++j )
+            {
+                char d = reversed ? b[ hi2 - j ] : b[ lo2 + j - 1 ];
+                int top = row[ j ];
+                row[ j ] = c == d ? diagonal + 1 : Math.max( top, row[ j - 1 ] );
+                diagonal = top;
+            }
+        }
+        
+        return row;
+    }
+    
+    /**
+     * Fill the LCS table of both parts and read one LCS from it, as LCS.calcLCS does
+     * @return LCS
+     */
+    private String solveWithTable()
+    {
+        int [ ][ ] table = new int[ hi1 - lo1 + 1 ][ hi2 - lo2 + 1 ];
+        for ( int i = 1; i < table.length; ++i )
+            for ( int j = 1; j < table[ 0 ].length; ++j )
+                if ( a[ lo1 + i - 1 ] == b[ lo2 + j - 1 ] )
+                    table[ i ][ j ] = 1 + table[ i - 1 ][ j - 1 ];
+                else
+                    table[ i ][ j ] = Math.max( table[ i ][ j - 1 ], table[ i - 1 ][ j ] );
+        
+        StringBuilder sb = new StringBuilder();
+        int i = table.length - 1;
+        int j = table[ 0 ].length - 1;
+        while ( i > 0 && j > 0 )
+        {
+            if ( a[ lo1 + i - 1 ] == b[ lo2 + j - 1 ] )
+            {
+                sb.append( a[ lo1 + i - 1 ] );
+                --i;--j;
+            }
+            else if ( table[ i - 1 ][ j ] > table[ i ][ j - 1 ] )
+                --i;
+            else
+                --j;
+        }
+        
+        return sb.reverse().toString();
+    }
 }
 
 /*
@@ -211,9 +1099,10 @@ public class DynamicProg
 {
     public static void main( String [ ] args )
     {
-        if ( args.length != 2 )
+        if ( args.length != 2 && args.length != 3 )
         {
-            System.err.println( "Please pass the names of the matrix and string files as parameters." );
+            System.err.println( "Please pass the names of the matrix and string files as parameters,"
+                                + " and optionally a file of strings to compare with the first string." );
             System.exit( 1 );
         }
         
@@ -251,6 +1140,53 @@ public class DynamicProg
             System.out.println( lcs );
             System.out.println( "The LCS is of size " + lcs.length() );
             System.out.println( "(It took " + ( end - start ) + " ms.)" );
+            
+            start = System.currentTimeMillis();
+            lcs = LCS.calcLCSHirschberg( strings[ 0 ], strings[ 1 ] );
+            end = System.currentTimeMillis();
+            
+            System.out.println( "The linear space (Hirschberg) LCS is of size " + lcs.length() 
+                                + " (It took " + ( end - start ) + " ms.)" );
+            
+            start = System.currentTimeMillis();
+            int length = LCS.lengthBitParallel( strings[ 0 ], strings[ 1 ] );
+            end = System.currentTimeMillis();
+            
+            System.out.println( "The bit-parallel LCS length is " + length 
+                                + " (It took " + ( end - start ) + " ms.)" );
+            
+            start = System.currentTimeMillis();
+            lcs = LCS.calcLCSBitParallel( strings[ 0 ], strings[ 1 ] );
+            end = System.currentTimeMillis();
+            
+            System.out.println( "The bit-parallel LCS is of size " + lcs.length() 
+                                + " (It took " + ( end - start ) + " ms.)" );
+            
+            start = System.currentTimeMillis();
+            length = LCS.lengthWavefront( strings[ 0 ], strings[ 1 ] );
+            end = System.currentTimeMillis();
+            
+            System.out.println( "The wavefront LCS length is " + length 
+                                + " (It took " + ( end - start ) + " ms.)" );
+            
+            start = System.currentTimeMillis();
+            lcs = LCS.calcLCSWavefront( strings[ 0 ], strings[ 1 ] );
+            end = System.currentTimeMillis();
+            
+            System.out.println( "The wavefront LCS is of size " + lcs.length() 
+                                + " (It took " + ( end - start ) + " ms.)" );
+            
+            start = System.currentTimeMillis();
+            String script = LCS.editScript( strings[ 0 ], strings[ 1 ] );
+            lcs = LCS.commonChars( strings[ 0 ], script );
+            end = System.currentTimeMillis();
+            
+            System.out.println( "The Myers LCS is of size " + lcs.length() + ", with " 
+                                + ( script.length() - lcs.length() ) + " deletions and insertions"
+                                + " (It took " + ( end - start ) + " ms.)" );
+            
+            if ( args.length == 3 )
+                printClosestStrings( strings[ 0 ], args[ 2 ] );
         }
         catch( FileNotFoundException ex )
         {
@@ -331,6 +1267,30 @@ public class DynamicProg
         return matrix;
     }
     
+    /**
+     * Print the strings of the file, one per line, with the longest LCS with the query
+     * @param query
+     * @param filename 
+     */
+    private static void printClosestStrings( String query, String filename )
+    {
+        try
+        {
+            long start = System.currentTimeMillis();
+            List<ScoredCandidate> best = new LCSBatch( query ).topK( filename, 5 );
+            long end = System.currentTimeMillis();
+            
+            System.out.println( "The strings in '" + filename + "' with the longest LCS with the first string"
+                                + " (It took " + ( end - start ) + " ms.):" );
+            for ( ScoredCandidate candidate : best )
+                System.out.println( "  Line " + ( candidate.line + 1 ) + ": LCS of size " + candidate.length );
+        }
+        catch( FileNotFoundException ex )
+        {
+            System.err.println( "The file: '" + filename + "' was not found." );
+        }
+    }
+    
     private static String [ ] readLCSWords( String filename ) throws FileNotFoundException
     {
         Scanner scanner = new Scanner( new File( filename ) );